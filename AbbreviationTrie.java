@@ -0,0 +1,239 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A prefix trie over the course abbreviations of a catalog, e.g. "ICS 311", answering
+ * lookups like "MATH 2", "ICS 31" or "ENG" with the rows of every matching course.
+ * <p>Abbreviations are matched ignoring case and spaces, so "ics31" finds "ICS 311".  The nodes
+ * are kept in parallel int and char arrays: each node has a label, its first child and its next
+ * sibling, siblings being ordered by label, and the abbreviation that ends there, if any.  The
+ * rows of each abbreviation are chained through an int array indexed by row.  Finding the node
+ * of a prefix reads one node per character; the matching rows are then collected from its
+ * subtree, so a lookup costs the length of the prefix plus the number of matches, not the size
+ * of the catalog.
+ * <p>Rows are added one at a time, in the order the courses are added to the catalog.
+ * @see alexchantavy.CourseCatalog#abbreviationRows(String)
+ * @author Alex Chantavy
+ */
+public class AbbreviationTrie {
+
+    /** Marks the absence of a node, abbreviation or row */
+    private static final int NONE = -1;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    /* Node columns, indexed by node; node 0 is the root */
+    private char[] label = new char[64];
+    private int[] firstChild = new int[64];
+    private int[] nextSibling = new int[64];
+    /** The abbreviation ending at each node, or <code>NONE</code> */
+    private int[] key = new int[64];
+    private int nodes;
+
+    /** Every distinct abbreviation, as first added, by number */
+    private final List<String> keys = new ArrayList<String>();
+    /** The last row added of each abbreviation */
+    private int[] lastRow = new int[16];
+    /** The previous row of the same abbreviation, by row, or <code>NONE</code> */
+    private int[] previousRow;
+    private int rows;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates an empty trie
+     * @param expected The number of rows expected, to size the arrays
+     */
+    public AbbreviationTrie(int expected) {
+        previousRow = new int[Math.max(16, expected)];
+        newNode('\0');
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Adds the next row of the catalog
+     * @param abbreviation The course abbreviation of the row, e.g. ICS 311
+     * @return The row, i.e. the number of rows added before
+     */
+    public int add(String abbreviation) {
+        int node = 0;
+        for (int i = 0; i < abbreviation.length(); i++) {
+            char c = abbreviation.charAt(i);
+            if (c != ' ') {
+                node = child(node, Character.toUpperCase(c));
+            }
+        }
+        if (key[node] == NONE) {
+            key[node] = keys.size();
+            keys.add(abbreviation);
+            if (keys.size() > lastRow.length) {
+                lastRow = grow(lastRow);
+            }
+            lastRow[key[node]] = NONE;
+        }
+        int k = key[node];
+        if (rows == previousRow.length) {
+            previousRow = grow(previousRow);
+        }
+        previousRow[rows] = lastRow[k];
+        lastRow[k] = rows;
+        return rows++;
+    }
+
+    /**
+     * Returns the child of a node with the given label, creating it if needed
+     * @param parent The node
+     * @param c The label
+     * @return The child
+     */
+    private int child(int parent, char c) {
+        int previous = NONE;
+        int node = firstChild[parent];
+        while (node != NONE && label[node] < c) {
+            previous = node;
+            node = nextSibling[node];
+        }
+        if (node != NONE && label[node] == c) {
+            return node;
+        }
+        int created = newNode(c);
+        nextSibling[created] = node;
+        if (previous == NONE) {
+            firstChild[parent] = created;
+        } else {
+            nextSibling[previous] = created;
+        }
+        return created;
+    }
+
+    private int newNode(char c) {
+        if (nodes == label.length) {
+            char[] labels = new char[nodes * 2];
+            System.arraycopy(label, 0, labels, 0, nodes);
+            label = labels;
+            firstChild = grow(firstChild);
+            nextSibling = grow(nextSibling);
+            key = grow(key);
+        }
+        label[nodes] = c;
+        firstChild[nodes] = NONE;
+        nextSibling[nodes] = NONE;
+        key[nodes] = NONE;
+        return nodes++;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Returns the node reached by following a prefix from the root
+     * @param prefix The prefix, matched ignoring case and spaces
+     * @return The node, or <code>NONE</code> if no abbreviation starts with the prefix
+     */
+    private int find(String prefix) {
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node != NONE; i++) {
+            char c = prefix.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            c = Character.toUpperCase(c);
+            node = firstChild[node];
+            while (node != NONE && label[node] < c) {
+                node = nextSibling[node];
+            }
+            if (node != NONE && label[node] != c) {
+                node = NONE;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the rows of the courses whose abbreviation starts with a prefix
+     * @param prefix The prefix, e.g. "ICS 31", matched ignoring case and spaces
+     * @return A new BitSet of the rows, empty if none matches
+     */
+    public BitSet rows(String prefix) {
+        BitSet result = new BitSet(rows);
+        int top = find(prefix);
+        if (top == NONE) {
+            return result;
+        }
+        int[] stack = new int[16];
+        int depth = 0;
+        stack[depth++] = top;
+        while (depth > 0) {
+            int node = stack[--depth];
+            if (key[node] != NONE) {
+                for (int row = lastRow[key[node]]; row != NONE; row = previousRow[row]) {
+                    result.set(row);
+                }
+            }
+            for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+                if (depth == stack.length) {
+                    stack = grow(stack);
+                }
+                stack[depth++] = c;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the abbreviations starting with a prefix, in alphabetical order, e.g. to suggest
+     * courses as a user types
+     * @param prefix The prefix, e.g. "MATH 2", matched ignoring case and spaces
+     * @param limit The maximum number of abbreviations returned
+     * @return A new list of at most <code>limit</code> abbreviations, as they appear in the catalog
+     */
+    public List<String> complete(String prefix, int limit) {
+        List<String> result = new ArrayList<String>();
+        int top = find(prefix);
+        if (top == NONE || limit <= 0) {
+            return result;
+        }
+        // Depth first, visiting the children of a node in label order
+        int[] stack = new int[16];
+        int depth = 0;
+        stack[depth++] = top;
+        while (depth > 0 && result.size() < limit) {
+            int node = stack[--depth];
+            if (key[node] != NONE) {
+                result.add(keys.get(key[node]));
+            }
+            int first = depth;
+            for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+                if (depth == stack.length) {
+                    stack = grow(stack);
+                }
+                stack[depth++] = c;
+            }
+            // Reverse the children just pushed, so the first label is popped first
+            for (int i = first, j = depth - 1; i < j; i++, j--) {
+                int t = stack[i];
+                stack[i] = stack[j];
+                stack[j] = t;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of distinct abbreviations in the trie
+     * @return The number of abbreviations
+     */
+    public int size() {
+        return keys.size();
+    }
+}
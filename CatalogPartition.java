@@ -0,0 +1,256 @@
+package alexchantavy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The courses of one institution in one term, e.g. Manoa in Fall 2011.
+ * <p>A partition is loaded, refreshed and evicted on its own, from the department pages of its
+ * institution and term.  While a term is current, its courses are kept as a
+ * <code>CourseCatalog</code> that each refresh replaces.  Once a term is over, the partition can
+ * be frozen: its courses are moved into a read-only <code>ColumnarCatalog</code>, which takes a
+ * fraction of the memory, and it can no longer be refreshed.
+ * @see alexchantavy.CatalogPartitions
+ * @author Alex Chantavy
+ */
+public class CatalogPartition {
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final String institution;
+    private final String term;
+    /** URL of the department pages, without the department at its end */
+    private final String baseURL;
+    /** The departments of the institution and term */
+    private final DepartmentRegistry departments;
+    /** The courses while the partition isn't frozen, or <code>null</code>.  Guarded by this. */
+    private CourseCatalog live;
+    /** The courses once the partition is frozen, or <code>null</code>.  Guarded by this. */
+    private ColumnarCatalog frozen;
+    /** When the courses were last loaded, or 0.  Guarded by this. */
+    private long loadedAt;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates an empty partition loading from the Class Availability website
+     * @param institution The institution code, e.g. MAN
+     * @param term The term code, e.g. 201210
+     */
+    public CatalogPartition(String institution, String term) {
+        this(institution, term, CourseDatabase.departmentURL(institution, term));
+    }
+
+    /**
+     * Creates an empty partition
+     * @param institution The institution code, e.g. MAN
+     * @param term The term code, e.g. 201210
+     * @param baseURL The URL of a department page without the department at its end
+     */
+    public CatalogPartition(String institution, String term, String baseURL) {
+        this.institution = institution;
+        this.term = term;
+        this.baseURL = baseURL;
+        String indexURL = baseURL.endsWith("&s=") ? baseURL.substring(0, baseURL.length() - 3) : baseURL;
+        this.departments = new DepartmentRegistry(institution, term, indexURL,
+                Arrays.asList(CourseDatabase.DEPARTMENT_LIST));
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Discovers the departments of the institution and term, downloads those that aren't known
+     * to be empty and replaces the courses of the partition with theirs.  If the index page of
+     * the term can't be read, the departments known so far are loaded.
+     * @param parallelism The maximum number of concurrent downloads
+     * @return The number of courses loaded
+     * @throws InvalidFileFormatException If parsing any department fails
+     * @throws IOException If downloading any department fails
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     * @throws IllegalStateException If the partition is frozen
+     */
+    public int refresh(int parallelism) throws InvalidFileFormatException, IOException, InterruptedException {
+        if (isFrozen()) {
+            throw new IllegalStateException(this + " is frozen");
+        }
+        try {
+            departments.discover(CourseDatabase.getFetchScheduler());
+        } catch (IOException e) {
+            // Keep the departments known so far
+        } catch (InvalidFileFormatException e) {
+            // Keep the departments known so far
+        }
+        LinkedList<Course> courses = CourseDatabase.loadDepartments(baseURL,
+                departments.getLoadableDepartments(), parallelism, departments.recordLoads(null));
+        replaceCourses(courses);
+        return courses.size();
+    }
+
+    /**
+     * Downloads the given departments and replaces the courses of the partition with theirs
+     * @param depts The departments to load
+     * @param parallelism The maximum number of concurrent downloads
+     * @return The number of courses loaded
+     * @throws InvalidFileFormatException If parsing any department fails
+     * @throws IOException If downloading any department fails
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     * @throws IllegalStateException If the partition is frozen
+     */
+    public int refresh(List<String> depts, int parallelism)
+            throws InvalidFileFormatException, IOException, InterruptedException {
+        if (isFrozen()) {
+            throw new IllegalStateException(this + " is frozen");
+        }
+        LinkedList<Course> courses = CourseDatabase.loadDepartments(baseURL, depts, parallelism, null);
+        replaceCourses(courses);
+        return courses.size();
+    }
+
+    /**
+     * Replaces the courses of the partition, e.g. with those of a snapshot
+     * @param courses The new courses
+     * @throws IllegalStateException If the partition is frozen
+     */
+    public synchronized void replaceCourses(List<Course> courses) {
+        if (frozen != null) {
+            throw new IllegalStateException(this + " is frozen");
+        }
+        live = new CourseCatalog(courses);
+        loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Moves the courses of the partition into a read-only columnar catalog.  Does nothing if
+     * the partition is already frozen.
+     * @param shared The strings shared by the frozen partitions, see
+     * <code>ColumnarCatalog(List, Map)</code>, or <code>null</code>
+     */
+    synchronized void freeze(Map<String, String> shared) {
+        if (frozen != null) {
+            return;
+        }
+        frozen = new ColumnarCatalog(live == null ? new ArrayList<Course>() : live.getCourses(), shared);
+        live = null;
+    }
+
+    /**
+     * Drops the courses of the partition and its cached pages.  A frozen partition is thawed;
+     * it is empty and can be loaded again.
+     */
+    public void evict() {
+        synchronized (this) {
+            live = null;
+            frozen = null;
+            loadedAt = 0;
+        }
+        CourseDatabase.getPageCache().evict(baseURL);
+    }
+
+    /**
+     * Returns the courses of the partition that satisfy a query
+     * @param query The query
+     * @return The matching courses, most relevant to the keywords first if the query has
+     * keywords, in catalog order otherwise; empty if the partition isn't loaded
+     */
+    public List<Course> query(CourseQuery query) {
+        CourseCatalog catalog;
+        ColumnarCatalog columns;
+        synchronized (this) {
+            catalog = live;
+            columns = frozen;
+        }
+        if (columns != null) {
+            BitSet rows = columns.select(query);
+            if (query.getKeywords() != null) {
+                // Ranked like CourseQuery.run(), so a term reads the same once it is frozen
+                int[] ranked = columns.getTextIndex().rank(query.getKeywords(), rows);
+                List<Course> result = new ArrayList<Course>(ranked.length);
+                for (int row : ranked) {
+                    result.add(columns.get(row));
+                }
+                return result;
+            }
+            List<Course> result = new ArrayList<Course>(rows.cardinality());
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                result.add(columns.get(row));
+            }
+            return result;
+        }
+        if (catalog != null) {
+            return query.run(catalog);
+        }
+        return new ArrayList<Course>();
+    }
+
+    /**
+     * Returns the number of courses of the partition
+     * @return The number of courses, 0 if it isn't loaded
+     */
+    public synchronized int size() {
+        if (frozen != null) {
+            return frozen.size();
+        }
+        return live == null ? 0 : live.size();
+    }
+
+    /**
+     * Returns whether the partition holds courses
+     * @return Whether it was loaded and not evicted since
+     */
+    public synchronized boolean isLoaded() {
+        return live != null || frozen != null;
+    }
+
+    /**
+     * Returns whether the partition was frozen into read-only storage
+     * @return Whether it is frozen
+     */
+    public synchronized boolean isFrozen() {
+        return frozen != null;
+    }
+
+    /**
+     * Returns when the courses were last loaded
+     * @return The time in milliseconds, or 0 if the partition isn't loaded
+     */
+    public synchronized long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public String getInstitution() {
+        return institution;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    /**
+     * Returns the departments of the institution and term
+     * @return The department registry of the partition
+     */
+    public DepartmentRegistry getDepartmentRegistry() {
+        return departments;
+    }
+
+    /**
+     * Returns the URL of the department pages of the partition
+     * @return The URL without the department at its end
+     */
+    public String getBaseURL() {
+        return baseURL;
+    }
+
+    @Override
+    public String toString() {
+        return institution + " " + term;
+    }
+}
@@ -0,0 +1,177 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The catalog partitions of every institution and term that have been asked for.
+ * <p>Queries can target a single partition or several at once, e.g. every term of a campus
+ * for trend queries; the partitions are searched in parallel and the results concatenated in
+ * the order the partitions were given.  Frozen partitions share their strings, so keeping
+ * years of old terms adds little more than their int columns, since most departments,
+ * instructors, rooms and titles repeat from term to term.
+ * @see alexchantavy.CatalogPartition
+ * @author Alex Chantavy
+ */
+public class CatalogPartitions {
+
+    /** Orders partitions by institution, then term */
+    private static final Comparator<CatalogPartition> BY_KEY = new Comparator<CatalogPartition>() {
+        public int compare(CatalogPartition a, CatalogPartition b) {
+            int c = a.getInstitution().compareTo(b.getInstitution());
+            return c != 0 ? c : a.getTerm().compareTo(b.getTerm());
+        }
+    };
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    /** Partitions by "institution/term" */
+    private final ConcurrentMap<String, CatalogPartition> partitions = new ConcurrentHashMap<String, CatalogPartition>();
+    /** Strings shared by the frozen partitions.  Guarded by this. */
+    private final Map<String, String> sharedStrings = new HashMap<String, String>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "partition-query");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Returns the partition of an institution and term, creating an empty one if needed
+     * @param institution The institution code, e.g. MAN
+     * @param term The term code, e.g. 201210
+     * @return The partition
+     */
+    public CatalogPartition get(String institution, String term) {
+        String key = institution + "/" + term;
+        CatalogPartition partition = partitions.get(key);
+        if (partition == null) {
+            CatalogPartition created = new CatalogPartition(institution, term);
+            partition = partitions.putIfAbsent(key, created);
+            if (partition == null) {
+                partition = created;
+            }
+        }
+        return partition;
+    }
+
+    /**
+     * Returns every partition
+     * @return A new list of the partitions, by institution and term
+     */
+    public List<CatalogPartition> getPartitions() {
+        List<CatalogPartition> list = new ArrayList<CatalogPartition>(partitions.values());
+        Collections.sort(list, BY_KEY);
+        return list;
+    }
+
+    /**
+     * Returns the partitions of an institution
+     * @param institution The institution code, e.g. MAN
+     * @return A new list of its partitions, by term
+     */
+    public List<CatalogPartition> getPartitions(String institution) {
+        List<CatalogPartition> list = new ArrayList<CatalogPartition>();
+        for (CatalogPartition p : getPartitions()) {
+            if (p.getInstitution().equals(institution)) {
+                list.add(p);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Evicts and forgets the partition of an institution and term
+     * @param institution The institution code
+     * @param term The term code
+     */
+    public void remove(String institution, String term) {
+        CatalogPartition partition = partitions.remove(institution + "/" + term);
+        if (partition != null) {
+            partition.evict();
+        }
+    }
+
+    /**
+     * Freezes a partition into read-only columnar storage sharing its strings with the other
+     * frozen partitions
+     * @param partition The partition
+     */
+    public synchronized void freeze(CatalogPartition partition) {
+        partition.freeze(sharedStrings);
+    }
+
+    /**
+     * Freezes every loaded partition of a term before the given one
+     * @param term The first term to keep as is, e.g. 201210
+     * @return The number of partitions frozen
+     */
+    public int freezeTermsBefore(String term) {
+        int count = 0;
+        for (CatalogPartition p : getPartitions()) {
+            if (p.getTerm().compareTo(term) < 0 && p.isLoaded() && !p.isFrozen()) {
+                freeze(p);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Runs a query against several partitions in parallel
+     * @param query The query
+     * @param targets The partitions to search
+     * @return The matching courses of each partition, in the order of <code>targets</code>;
+     * within a partition, most relevant to the keywords first if the query has keywords
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public List<Course> query(final CourseQuery query, List<CatalogPartition> targets) throws InterruptedException {
+        if (targets.size() == 1) {
+            return targets.get(0).query(query);
+        }
+        List<Future<List<Course>>> results = new ArrayList<Future<List<Course>>>(targets.size());
+        try {
+            for (final CatalogPartition p : targets) {
+                results.add(executor.submit(new Callable<List<Course>>() {
+                    public List<Course> call() {
+                        return p.query(query);
+                    }
+                }));
+            }
+            List<Course> courses = new ArrayList<Course>();
+            for (Future<List<Course>> result : results) {
+                courses.addAll(result.get());
+            }
+            return courses;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<List<Course>> result : results) {
+                result.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package alexchantavy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves a parsed catalog to a compact binary file and loads it back, so that the application
+ * can start without downloading and parsing every department again.
+ * <p>The file starts with a magic number and a format version.  The rest of the file holds a
+ * dictionary of every distinct string of the catalog followed by the courses, whose string
+ * fields are stored as positions in the dictionary and whose CRN and seats are stored as ints.
+ * Since version 2, the courses are followed by the <code>DepartmentRegistry</code> of the catalog's
+ * term, if one was saved: its institution and term, the time its departments were discovered, the
+ * department codes and the departments known to be empty.  Version 1 files are still read.
+ * The last 8 bytes are a CRC32 checksum of everything after the header.  Files are read through
+ * a memory mapped buffer, and each distinct string is only created once.
+ * @see alexchantavy.CourseDatabase#saveSnapshot(File)
+ * @author Alex Chantavy
+ */
+public class CatalogSnapshot {
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** "UHCS" */
+    private static final int MAGIC = 0x55484353;
+    /** Version of the file format written by this class */
+    public static final int VERSION = 2;
+    /** Size of the magic number and version */
+    private static final int HEADER_SIZE = 8;
+    /** Size of the checksum at the end of the file */
+    private static final int CHECKSUM_SIZE = 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private CatalogSnapshot() {
+    }
+
+    //////////////////////////////////
+    // S t a t i c  M e t h o d s   //
+    //////////////////////////////////
+    /**
+     * Writes the given courses to a snapshot file, overwriting it if it exists.  The file is
+     * written to a temporary file first, so a crash never leaves a half written snapshot.
+     * @param courses The courses to save
+     * @param file The snapshot file
+     * @throws IOException If writing fails
+     */
+    public static void write(List<Course> courses, File file) throws IOException {
+        write(courses, null, file);
+    }
+
+    /**
+     * Writes the given courses and the departments of their term to a snapshot file, like
+     * <code>write(List, File)</code>
+     * @param courses The courses to save
+     * @param registry The departments of the courses' term, or <code>null</code>
+     * @param file The snapshot file
+     * @throws IOException If writing fails
+     */
+    public static void write(List<Course> courses, DepartmentRegistry registry, File file) throws IOException {
+        List<String> departments = new ArrayList<String>();
+        Map<String, Long> empty = new HashMap<String, Long>();
+        long discoveredAt = 0;
+        if (registry != null) {
+            // Copied together, so the saved codes and empty departments agree
+            synchronized (registry) {
+                departments = registry.getDepartments();
+                empty = registry.getEmptyDepartments();
+                discoveredAt = registry.getDiscoveredAt();
+            }
+        }
+        // First pass: number every distinct string
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        for (Course c : courses) {
+            intern(c.getDepartment(), dictionary, strings);
+            intern(c.getFocus(), dictionary, strings);
+            intern(c.getCourseAbbrev(), dictionary, strings);
+            intern(c.getSection(), dictionary, strings);
+            intern(c.getTitle(), dictionary, strings);
+            intern(c.getInstructor(), dictionary, strings);
+            intern(c.getCredits(), dictionary, strings);
+            for (MeetingTime m : c.getMeetingTimes()) {
+                intern(m.getDays(), dictionary, strings);
+                intern(m.getStartTime(), dictionary, strings);
+                intern(m.getEndTime(), dictionary, strings);
+                intern(m.getLocation(), dictionary, strings);
+                intern(m.getDates(), dictionary, strings);
+            }
+        }
+        if (registry != null) {
+            intern(registry.getInstitution(), dictionary, strings);
+            intern(registry.getTerm(), dictionary, strings);
+            for (String dept : departments) {
+                intern(dept, dictionary, strings);
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            DataOutputStream header = new DataOutputStream(fileOut);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(fileOut, crc), 1 << 16));
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(courses.size());
+            for (Course c : courses) {
+                out.writeInt(dictionary.get(c.getDepartment()));
+                out.writeInt(dictionary.get(c.getFocus()));
+                out.writeInt(c.getCrn());
+                out.writeInt(dictionary.get(c.getCourseAbbrev()));
+                out.writeInt(dictionary.get(c.getSection()));
+                out.writeInt(dictionary.get(c.getTitle()));
+                out.writeInt(dictionary.get(c.getInstructor()));
+                out.writeInt(c.getSeats());
+                out.writeInt(dictionary.get(c.getCredits()));
+                out.writeInt(c.getMeetingTimes().size());
+                for (MeetingTime m : c.getMeetingTimes()) {
+                    out.writeInt(dictionary.get(m.getDays()));
+                    out.writeInt(dictionary.get(m.getStartTime()));
+                    out.writeInt(dictionary.get(m.getEndTime()));
+                    out.writeInt(dictionary.get(m.getLocation()));
+                    out.writeInt(dictionary.get(m.getDates()));
+                }
+            }
+            out.writeBoolean(registry != null);
+            if (registry != null) {
+                out.writeInt(dictionary.get(registry.getInstitution()));
+                out.writeInt(dictionary.get(registry.getTerm()));
+                out.writeLong(discoveredAt);
+                out.writeInt(departments.size());
+                for (String dept : departments) {
+                    out.writeInt(dictionary.get(dept));
+                }
+                out.writeInt(empty.size());
+                for (Map.Entry<String, Long> e : empty.entrySet()) {
+                    out.writeInt(dictionary.get(e.getKey()));
+                    out.writeLong(e.getValue());
+                }
+            }
+            out.flush();
+            header.writeLong(crc.getValue());
+            header.flush();
+        } finally {
+            fileOut.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can't replace " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+
+    private static void intern(String s, Map<String, Integer> dictionary, List<String> strings) {
+        if (!dictionary.containsKey(s)) {
+            dictionary.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    /**
+     * Reads the courses of a snapshot file
+     * @param file The snapshot file
+     * @return The courses, in the order they were saved
+     * @throws IOException If reading fails
+     * @throws InvalidFileFormatException If the file is not a snapshot, has an unsupported
+     * version or is corrupt
+     */
+    public static LinkedList<Course> read(File file) throws IOException, InvalidFileFormatException {
+        return read(file, null);
+    }
+
+    /**
+     * Reads the courses of a snapshot file and restores the departments saved with them
+     * @param file The snapshot file
+     * @param registry Receives the saved departments if the snapshot holds those of its
+     * institution and term, may be <code>null</code>
+     * @return The courses, in the order they were saved
+     * @throws IOException If reading fails
+     * @throws InvalidFileFormatException If the file is not a snapshot, has an unsupported
+     * version or is corrupt
+     */
+    public static LinkedList<Course> read(File file, DepartmentRegistry registry) throws IOException, InvalidFileFormatException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE + CHECKSUM_SIZE || size > Integer.MAX_VALUE) {
+                throw new InvalidFileFormatException("Not a catalog snapshot: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new InvalidFileFormatException("Not a catalog snapshot: " + file);
+            }
+            int version = buffer.getInt(4);
+            if (version < 1 || version > VERSION) {
+                throw new InvalidFileFormatException("Unsupported snapshot version " + version + ": " + file);
+            }
+            int payloadEnd = (int) size - CHECKSUM_SIZE;
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(HEADER_SIZE);
+            payload.limit(payloadEnd);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != buffer.getLong(payloadEnd)) {
+                throw new InvalidFileFormatException("Checksum mismatch in catalog snapshot: " + file);
+            }
+            String[] strings = readStrings(payload);
+            LinkedList<Course> courses = readCourses(payload, strings);
+            if (version >= 2 && payload.get() != 0) {
+                readDepartments(payload, strings, registry);
+            }
+            return courses;
+        } catch (BufferUnderflowException e) {
+            throw new InvalidFileFormatException("Truncated catalog snapshot: " + file, e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new InvalidFileFormatException("Corrupt catalog snapshot: " + file, e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the dictionary from the payload of a snapshot
+     * @param in The payload, positioned at the dictionary
+     * @return Every string, by position
+     */
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, UTF8);
+        }
+        return strings;
+    }
+
+    /**
+     * Reads the courses from the payload of a snapshot
+     * @param in The payload, positioned after the dictionary
+     * @param strings The dictionary
+     * @return The courses
+     */
+    private static LinkedList<Course> readCourses(ByteBuffer in, String[] strings) {
+        LinkedList<Course> courses = new LinkedList<Course>();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String department = strings[in.getInt()];
+            String focus = strings[in.getInt()];
+            int crn = in.getInt();
+            String abbreviation = strings[in.getInt()];
+            String section = strings[in.getInt()];
+            String title = strings[in.getInt()];
+            String instructor = strings[in.getInt()];
+            int seats = in.getInt();
+            String credits = strings[in.getInt()];
+            int meetings = in.getInt();
+            LinkedList<MeetingTime> meetingTimes = new LinkedList<MeetingTime>();
+            for (int m = 0; m < meetings; m++) {
+                meetingTimes.add(new MeetingTime(strings[in.getInt()], strings[in.getInt()],
+                        strings[in.getInt()], strings[in.getInt()], strings[in.getInt()]));
+            }
+            courses.add(new Course(department, focus, crn, abbreviation, section, title,
+                    instructor, seats, credits, meetingTimes));
+        }
+        return courses;
+    }
+
+    /**
+     * Reads the saved departments from the payload of a snapshot, restoring them into a
+     * registry of the same institution and term
+     * @param in The payload, positioned after the courses
+     * @param strings The dictionary
+     * @param registry The registry, may be <code>null</code>
+     */
+    private static void readDepartments(ByteBuffer in, String[] strings, DepartmentRegistry registry) {
+        String institution = strings[in.getInt()];
+        String term = strings[in.getInt()];
+        long discoveredAt = in.getLong();
+        List<String> departments = new ArrayList<String>();
+        for (int i = in.getInt(); i > 0; i--) {
+            departments.add(strings[in.getInt()]);
+        }
+        Map<String, Long> empty = new HashMap<String, Long>();
+        for (int i = in.getInt(); i > 0; i--) {
+            empty.put(strings[in.getInt()], in.getLong());
+        }
+        if (registry != null && registry.getInstitution().equals(institution) && registry.getTerm().equals(term)) {
+            registry.restore(departments, empty, discoveredAt);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package alexchantavy;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, read-only catalog stored column by column instead of as a list of
+ * <code>Course</code> objects.
+ * <p>Every distinct string of the catalog is kept once, in a dictionary, and the string fields
+ * of the courses are stored as int codes into it.  CRNs, seats, credits, requirements and days
+ * are stored in primitive arrays, one per field, indexed by row.  The meeting times of all the
+ * courses are stored in a second set of columns; the meeting times of row <code>r</code> are
+ * those from <code>meetingOffsets[r]</code> to <code>meetingOffsets[r + 1]</code>.  Since
+ * department, instructor, room and date strings repeat thousands of times, this takes a fraction
+ * of the memory of the courses it was built from, and scanning a field reads one array.
+ * <p>A <code>Row</code> reads the fields of a row straight from the columns.  A
+ * <code>Course</code> is only built when one is asked for with <code>get(int)</code>.
+ * @see alexchantavy.CourseCatalog
+ * @see alexchantavy.CatalogSnapshot
+ * @author Alex Chantavy
+ */
+public class ColumnarCatalog {
+
+    /**
+     * A view of one row of the catalog.  Its getters return what the getters of the same name
+     * of the row's <code>Course</code> would.
+     */
+    public class Row {
+        private final int row;
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        /**
+         * Returns the row this view reads
+         * @return The row
+         */
+        public int getRow() {
+            return row;
+        }
+
+        public String getDepartment() {
+            return strings[department[row]];
+        }
+
+        public String getFocus() {
+            return strings[focus[row]];
+        }
+
+        public int getCrn() {
+            return crn[row];
+        }
+
+        public String getCourseAbbrev() {
+            return strings[courseAbbrev[row]];
+        }
+
+        public String getSection() {
+            return strings[section[row]];
+        }
+
+        public String getTitle() {
+            return strings[title[row]];
+        }
+
+        public String getInstructor() {
+            return strings[instructor[row]];
+        }
+
+        public int getSeats() {
+            return seats[row];
+        }
+
+        public String getCredits() {
+            return strings[credits[row]];
+        }
+
+        public float getMinCredits() {
+            return minCredits[row];
+        }
+
+        public float getMaxCredits() {
+            return maxCredits[row];
+        }
+
+        public int getRequirementMask() {
+            return requirements[row];
+        }
+
+        public int getDayMask() {
+            return dayMask[row];
+        }
+
+        public boolean isOnline() {
+            return online.get(row);
+        }
+
+        /**
+         * Returns the number of meeting times of the course
+         * @return The number of meeting times
+         */
+        public int getMeetingCount() {
+            return meetingOffsets[row + 1] - meetingOffsets[row];
+        }
+
+        /**
+         * Builds the <code>Course</code> of this row
+         * @return A new Course equal to the one the row was built from
+         */
+        public Course toCourse() {
+            LinkedList<MeetingTime> meetings = new LinkedList<MeetingTime>();
+            for (int m = meetingOffsets[row]; m < meetingOffsets[row + 1]; m++) {
+                meetings.add(new MeetingTime(strings[days[m]], strings[startTime[m]],
+                        strings[endTime[m]], strings[location[m]], strings[dates[m]]));
+            }
+            return new Course(getDepartment(), getFocus(), crn[row], getCourseAbbrev(), getSection(),
+                    getTitle(), getInstructor(), seats[row], getCredits(), meetings);
+        }
+
+        @Override
+        public String toString() {
+            return toCourse().toString();
+        }
+    }
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    /** Every distinct string, indexed by code */
+    private final String[] strings;
+    private final int size;
+
+    /* Course columns, indexed by row */
+    private final int[] department, focus, courseAbbrev, section, title, instructor, credits;
+    private final int[] crn, seats, requirements, dayMask;
+    private final float[] minCredits, maxCredits;
+    private final BitSet online = new BitSet();
+
+    /** Full-text index of the titles and instructors, built by the first query needing it */
+    private volatile TextIndex textIndex;
+
+    /** First meeting of every row, followed by the number of meetings */
+    private final int[] meetingOffsets;
+    /* Meeting time columns, indexed by meeting */
+    private final int[] days, startTime, endTime, location, dates;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a catalog holding the given courses, in order
+     * @param courses The courses
+     */
+    public ColumnarCatalog(List<Course> courses) {
+        this(courses, null);
+    }
+
+    /**
+     * Creates a catalog holding the given courses, in order, whose strings are shared with
+     * other catalogs, so that e.g. the departments, instructors and rooms of several terms are
+     * only kept once
+     * @param courses The courses
+     * @param shared The canonical instance of every string kept by the catalogs sharing it, to
+     * which the new strings of this catalog are added, or <code>null</code>.  Must not be used by
+     * other threads while the catalog is built.
+     */
+    public ColumnarCatalog(List<Course> courses, Map<String, String> shared) {
+        size = courses.size();
+        department = new int[size];
+        focus = new int[size];
+        courseAbbrev = new int[size];
+        section = new int[size];
+        title = new int[size];
+        instructor = new int[size];
+        credits = new int[size];
+        crn = new int[size];
+        seats = new int[size];
+        requirements = new int[size];
+        dayMask = new int[size];
+        minCredits = new float[size];
+        maxCredits = new float[size];
+        meetingOffsets = new int[size + 1];
+
+        int meetings = 0;
+        for (Course c : courses) {
+            meetings += c.getMeetingTimes().size();
+        }
+        days = new int[meetings];
+        startTime = new int[meetings];
+        endTime = new int[meetings];
+        location = new int[meetings];
+        dates = new int[meetings];
+
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        int row = 0, m = 0;
+        for (Course c : courses) {
+            department[row] = code(c.getDepartment(), dictionary);
+            focus[row] = code(c.getFocus(), dictionary);
+            courseAbbrev[row] = code(c.getCourseAbbrev(), dictionary);
+            section[row] = code(c.getSection(), dictionary);
+            title[row] = code(c.getTitle(), dictionary);
+            instructor[row] = code(c.getInstructor(), dictionary);
+            credits[row] = code(c.getCredits(), dictionary);
+            crn[row] = c.getCrn();
+            seats[row] = c.getSeats();
+            requirements[row] = c.getRequirementMask();
+            dayMask[row] = c.getDayMask();
+            minCredits[row] = c.getMinCredits();
+            maxCredits[row] = c.getMaxCredits();
+            if (Course.isOnline(c)) {
+                online.set(row);
+            }
+            meetingOffsets[row] = m;
+            for (MeetingTime t : c.getMeetingTimes()) {
+                days[m] = code(t.getDays(), dictionary);
+                startTime[m] = code(t.getStartTime(), dictionary);
+                endTime[m] = code(t.getEndTime(), dictionary);
+                location[m] = code(t.getLocation(), dictionary);
+                dates[m] = code(t.getDates(), dictionary);
+                m++;
+            }
+            row++;
+        }
+        meetingOffsets[size] = m;
+
+        strings = new String[dictionary.size()];
+        for (Map.Entry<String, Integer> e : dictionary.entrySet()) {
+            String value = e.getKey();
+            if (shared != null) {
+                String canonical = shared.get(value);
+                if (canonical == null) {
+                    shared.put(value, value);
+                } else {
+                    value = canonical;
+                }
+            }
+            strings[e.getValue()] = value;
+        }
+    }
+
+    /**
+     * Returns the code of a string, adding it to the dictionary if it is new
+     * @param s The string
+     * @param dictionary Codes by string
+     * @return The code
+     */
+    private static int code(String s, Map<String, Integer> dictionary) {
+        Integer code = dictionary.get(s);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.put(s, code);
+        }
+        return code;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Returns the number of courses in the catalog
+     * @return The number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of distinct strings kept by the catalog
+     * @return The size of the dictionary
+     */
+    public int getDictionarySize() {
+        return strings.length;
+    }
+
+    /**
+     * Returns a view of the given row
+     * @param row The row
+     * @return A view reading the row's fields from the columns
+     */
+    public Row row(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return new Row(row);
+    }
+
+    /**
+     * Builds the course of the given row
+     * @param row The row
+     * @return A new Course
+     */
+    public Course get(int row) {
+        return row(row).toCourse();
+    }
+
+    /**
+     * Builds every course of the catalog
+     * @return A new LinkedList of the courses, in row order
+     */
+    public LinkedList<Course> toCourses() {
+        LinkedList<Course> courses = new LinkedList<Course>();
+        for (int row = 0; row < size; row++) {
+            courses.add(get(row));
+        }
+        return courses;
+    }
+
+    /**
+     * Returns the full-text index of the titles and instructors, building it the first time.
+     * Frozen catalogs are seldom searched by text, so they don't pay for it until they are.
+     * @return The text index
+     */
+    public TextIndex getTextIndex() {
+        TextIndex index = textIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = textIndex;
+                if (index == null) {
+                    index = new TextIndex();
+                    for (int row = 0; row < size; row++) {
+                        index.add(strings[title[row]], strings[instructor[row]]);
+                    }
+                    textIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the rows that satisfy a query.  The title, instructor and keywords are answered
+     * by the text index, the department, requirements and seats are checked on the columns,
+     * the department once per distinct string rather than once per row, and a course is only
+     * built for the rows that pass them, if the query has other restrictions.
+     * @param query The query
+     * @return A new BitSet of the matching rows
+     */
+    public BitSet select(CourseQuery query) {
+        boolean decided = query.isDecidedByRow();
+        BitSet candidates = null;
+        if (query.hasTextRestriction()) {
+            candidates = query.textRows(getTextIndex());
+        }
+        // 0: not checked yet, 1: accepted, 2: rejected
+        byte[] departmentAccepted = new byte[strings.length];
+        BitSet rows = new BitSet(size);
+        for (int row = candidates == null ? 0 : candidates.nextSetBit(0); row >= 0 && row < size;
+                row = candidates == null ? row + 1 : candidates.nextSetBit(row + 1)) {
+            int dept = department[row];
+            if (departmentAccepted[dept] == 0) {
+                departmentAccepted[dept] = query.acceptsDepartment(strings[dept]) ? (byte) 1 : (byte) 2;
+            }
+            if (departmentAccepted[dept] == 2
+                    || !query.acceptsRequirements(requirements[row])
+                    || !query.acceptsSeats(seats[row])) {
+                continue;
+            }
+            if (decided || query.matches(get(row))) {
+                rows.set(row);
+            }
+        }
+        return rows;
+    }
+}
@@ -1,8 +1,8 @@
 package alexchantavy;
 
+import java.util.Collections;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 
 /**
  * Contains data fields of a typical college course.  Members include 
@@ -14,26 +14,64 @@ import java.util.regex.Pattern;
  *
  */
 public class Course {
-	private String department, focus, crn, course_abbreviation, section,
-			title, instructor, seats, credits;
+	private String department, focus, course_abbreviation, section,
+			title, instructor, credits;
+	private int crn, seats;
+	/** Smallest and largest number of credits, e.g. 1 and 6 for "1-6" */
+	private float minCredits, maxCredits;
+	/** The requirements listed in <code>focus</code>, as a mask of Requirement bits */
+	private int requirements;
+	/** Union of the days of all meeting times */
+	private int dayMask;
+	/** Whether any meeting time is online */
+	private boolean online;
 	private LinkedList<MeetingTime> meetingTimes;
 	
 	/**
-	 * Determines whether the given course is an online course by
-	 * checking each of the course's MeetingTime.location strings
-	 * for the words "WWW" or "ONLINE".
+	 * Determines whether the given course is an online course, i.e.,
+	 * whether any of the course's MeetingTime.location strings
+	 * contain the words "WWW" or "ONLINE".
 	 * @param c The given course
 	 * @return Whether or not Course c is online.
 	 */
 	public static boolean isOnline(Course c) {
-		for (int i = 0; i < c.meetingTimes.size(); i++) {
-			MeetingTime temp = c.meetingTimes.get(i);
-			if (temp.getLocation().contains("ONLINE") ||
-					temp.getLocation().contains("WWW")) {
-				return true;
+		return c.online;
+	}
+	
+	/**
+	 * Determines whether the given meeting time is held online
+	 * @param m The meeting time
+	 * @return Whether the location contains "WWW" or "ONLINE"
+	 */
+	private static boolean isOnline(MeetingTime m) {
+		return m.getLocation().contains("ONLINE") ||
+				m.getLocation().contains("WWW");
+	}
+	
+	/**
+	 * Parses the smallest and largest number of credits of a credits string
+	 * such as "3", "1-6" or "3/4" into this course's credit range.
+	 * @param credits The credits string
+	 */
+	private void parseCredits(String credits) {
+		float min = Float.MAX_VALUE, max = 0;
+		int start = 0;
+		for (int i = 0; i <= credits.length(); i++) {
+			if (i == credits.length() || credits.charAt(i) == '-' || credits.charAt(i) == '/') {
+				if (i > start) {
+					try {
+						float value = Float.parseFloat(credits.substring(start, i));
+						min = Math.min(min, value);
+						max = Math.max(max, value);
+					} catch (NumberFormatException e) {
+						// not a number, e.g. a lone "."
+					}
+				}
+				start = i + 1;
 			}
 		}
-		return false;
+		this.minCredits = min == Float.MAX_VALUE ? 0 : min;
+		this.maxCredits = max;
 	}
 	
 	/**
@@ -51,16 +89,8 @@ public class Course {
 	public Course(String department, String focus, String crn, String course,
 			String section, String title, String instructor, String seatsAvail,
 			String ncredits)  {
-		this.department = department;
-		this.focus = focus;
-		this.crn = crn;
-		this.course_abbreviation = course;
-		this.section = section;
-		this.title = title;
-		this.instructor = instructor;
-		this.seats = seatsAvail;
-		this.credits = ncredits;
-		meetingTimes = new LinkedList<MeetingTime>();
+		this(department, focus, crn, course, section, title, instructor,
+				seatsAvail, ncredits, new LinkedList<MeetingTime>());
 	}
 
 	/**
@@ -87,21 +117,15 @@ public class Course {
 	public Course(String department, String focus, String crn, String course,
 			String section, String title, String instructor, String seats,
 			String credits, MeetingTime m)  {
-		this.department = department;
-		this.focus = focus;
-		this.crn = crn;
-		this.course_abbreviation = course;
-		this.section = section;
-		this.title = title;
-		this.instructor = instructor;
-		this.seats = seats;
-		this.credits = credits;
-		meetingTimes = new LinkedList<MeetingTime>();
-		meetingTimes.add(m);
+		this(department, focus, crn, course, section, title, instructor,
+				seats, credits, new LinkedList<MeetingTime>());
+		addMeetingTime(m);
 	}
 
 	/**
-	 * Creates a Course object with the given LinkedList of MeetingTimes
+	 * Creates a Course object with the given LinkedList of MeetingTimes.
+	 * The CRN, seats and credits are parsed here once, so that filtering
+	 * and sorting don't need to parse them again.
 	 * @param department The department of the course (e.g, ICS)
 	 * @param focus The course's focus (e.g., OC, WI)
 	 * @param crn The course number (e.g., 123456)
@@ -116,8 +140,30 @@ public class Course {
 	public Course(String department, String focus, String crn, String course,
 			String section, String title, String instructor, String seats,
 			String credits, LinkedList<MeetingTime> meetingTimes) {
+		this(department, focus, Integer.parseInt(crn), course, section, title,
+				instructor, Integer.parseInt(seats), credits, meetingTimes);
+	}
+
+	/**
+	 * Creates a Course object from an already parsed CRN and number of seats,
+	 * e.g. when loading a <code>CatalogSnapshot</code>.
+	 * @param department The department of the course (e.g, ICS)
+	 * @param focus The course's focus (e.g., OC, WI)
+	 * @param crn The course number (e.g., 12345)
+	 * @param course The course abbreviation (e.g., ICS 111)
+	 * @param section The section number (e.g., 001)
+	 * @param title The course title (e.g., "Introduction to Computer Science")
+	 * @param instructor The instructor's name (e.g., R. Narayan)
+	 * @param seats Number of seats available (e.g., 10) 
+	 * @param credits The number of credits (e.g., 4)
+	 * @param meetingTimes The linked list of meeting times
+	 */
+	Course(String department, String focus, int crn, String course,
+			String section, String title, String instructor, int seats,
+			String credits, LinkedList<MeetingTime> meetingTimes) {
 		this.department = department;
 		this.focus = focus;
+		this.requirements = Requirement.parseMask(focus);
 		this.crn = crn;
 		this.course_abbreviation = course;
 		this.section = section;
@@ -125,9 +171,46 @@ public class Course {
 		this.instructor = instructor;
 		this.seats = seats;
 		this.credits = credits;
+		parseCredits(credits);
 		this.meetingTimes = meetingTimes;
+		for (MeetingTime m : meetingTimes) {
+			this.dayMask |= m.getDayMask();
+			this.online |= isOnline(m);
+		}
 	}
 
+	/**
+	 * Returns the section number
+	 * @return The section number (e.g., 001)
+	 */
+	public String getSection() {
+		return this.section;
+	}
+	
+	/**
+	 * Returns the course title
+	 * @return The course title
+	 */
+	public String getTitle() {
+		return this.title;
+	}
+	
+	/**
+	 * Returns the instructor's name
+	 * @return The instructor's name, or TBA
+	 */
+	public String getInstructor() {
+		return this.instructor;
+	}
+	
+	/**
+	 * Returns the meeting times of this course
+	 * @return An unmodifiable view of the meeting times
+	 */
+	public List<MeetingTime> getMeetingTimes() {
+		return Collections.unmodifiableList(this.meetingTimes);
+	}
+	
 	/**
 	 * Returns the department of the course (e.g ICS)
 	 * @return String of the course's department
@@ -137,12 +220,43 @@ public class Course {
     }
 
     /**
-     * Precondition: <code>this.seats</code> is parsable to a String<br>
+     * Returns the CRN of the course
+     * @return The 5 digit course number
+     */
+    public int getCrn() {
+        return this.crn;
+    }
+
+    /**
      * Returns the number of seats available in the course
      * @return The number of seats open
      */
     public int getSeats() {
-        return Integer.parseInt(this.seats);
+        return this.seats;
+    }
+
+    /**
+     * Returns the credits of the course as shown on the page, e.g. "3" or "1-6"
+     * @return The credits string
+     */
+    public String getCredits() {
+        return this.credits;
+    }
+
+    /**
+     * Returns the smallest number of credits the course may be taken for
+     * @return The minimum number of credits
+     */
+    public float getMinCredits() {
+        return this.minCredits;
+    }
+
+    /**
+     * Returns the largest number of credits the course may be taken for
+     * @return The maximum number of credits
+     */
+    public float getMaxCredits() {
+        return this.maxCredits;
     }
 
     /**
@@ -156,17 +270,11 @@ public class Course {
 
     /**
      * *In progress*:
-     * Returns the start time of the course.<br>
-     * @return Start time of the course
+     * Returns the start time of the course as the four digits shown on the page, e.g. 1030.<br>
+     * @return Start time of the course, or 0 if it is TBA
      */
 	public int getStartTime() {
-		MeetingTime m = this.meetingTimes.getFirst();
-		Pattern numbers = Pattern.compile("^\\d{4}");
-		Matcher match = numbers.matcher(m.getStartTime());
-		while (match.find()) {
-			return Integer.parseInt(match.group());	
-		}
-		return 0;
+		return this.meetingTimes.getFirst().getStartClock();
 	}
 	
 	/**
@@ -178,6 +286,15 @@ public class Course {
 		return this.meetingTimes.getFirst().getDays();
 	}
 	
+	/**
+	 * Returns the days of all of the course's meeting times as a bitmask
+	 * @return Bitmask of MeetingTime.MONDAY, MeetingTime.TUESDAY, etc.
+	 * @see alexchantavy.MeetingTime#getDayMask()
+	 */
+	public int getDayMask() {
+		return this.dayMask;
+	}
+	
 	/**
 	 * Returns this course's focus requirement, if any.
 	 * @return The course's focus requirement, if any.
@@ -186,6 +303,24 @@ public class Course {
 		return this.focus;
 	}
 	
+	/**
+	 * Returns the Gen. Ed., Div. and Focus requirements this course fulfills.
+	 * @return OR of the <code>Requirement.bit()</code>s of the requirements
+	 * @see alexchantavy.Requirement
+	 */
+	public int getRequirementMask() {
+		return this.requirements;
+	}
+	
+	/**
+	 * Returns whether this course fulfills every requirement of the given mask
+	 * @param requiredMask OR of <code>Requirement.bit()</code>s
+	 * @return Whether all of the requirements are fulfilled
+	 */
+	public boolean fulfills(int requiredMask) {
+		return (this.requirements & requiredMask) == requiredMask;
+	}
+	
 	/**
 	 * Adds the given MeetingTime object to this course's 
 	 * meetingtimes linked list. 
@@ -193,6 +328,8 @@ public class Course {
 	 */
 	protected void addMeetingTime (MeetingTime m) {
 		this.meetingTimes.add(m);
+		this.dayMask |= m.getDayMask();
+		this.online |= isOnline(m);
 	}
 	
 	/**
@@ -202,7 +339,7 @@ public class Course {
 	public String prettyString() {
 		return "Department: " + department + "\n" + 
 		"Focus: " + focus + "\n" +
-		crn + "\n" +
+		crnString() + "\n" +
 		course_abbreviation + "\n" +
 		"Section: " + section + "\n" +
 		title + "\n" + 
@@ -214,7 +351,7 @@ public class Course {
     @Override
 	public String toString() {
 		return
-        crn + "\n" +
+        crnString() + "\n" +
         course_abbreviation + ": " +
 		title + "\n" +
         "Gen. Ed./Div./Focus: " + focus + "\n" +
@@ -224,6 +361,18 @@ public class Course {
 		"Seats: " + seats + "\n" + meetingTimesOutput();
 	}
 	
+    /**
+     * Returns the CRN as shown on the page, padded to 5 digits
+     * @return The CRN string
+     */
+	private String crnString() {
+		String s = Integer.toString(crn);
+		while (s.length() < 5) {
+			s = "0" + s;
+		}
+		return s;
+	}
+	
     /**
      * Returns a 'pretty' string of the meetingTimes linked list.
      * Used for debugging
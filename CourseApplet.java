@@ -9,10 +9,8 @@
 package alexchantavy;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Iterator;
 import javax.swing.JOptionPane;
 import javax.swing.SwingWorker;
 
@@ -26,6 +24,8 @@ public class CourseApplet extends javax.swing.JApplet {
     LinkedList <Course> loaded_courses;
     LoadEntireCatalogTask load_task;
     SearchCriteria criteria;
+    /** The matches shown in the results table */
+    final CourseTableModel results = new CourseTableModel();
 
     /** Initializes the applet CourseApplet */
     @Override
@@ -41,9 +41,12 @@ public class CourseApplet extends javax.swing.JApplet {
                     /* The following code segment is a hack to get around
                     constraints of NetBeans IDE.*/
                     // Initialize the contents of the Department JComboBox
-                    String[] deptListContents = new String[CourseDatabase.DEPARTMENT_LIST.length + 1];
+                    List<String> departments = CourseDatabase.getDepartmentRegistry().getDepartments();
+                    String[] deptListContents = new String[departments.size() + 1];
                     deptListContents[0] = "Any";
-                    System.arraycopy(CourseDatabase.DEPARTMENT_LIST, 0, deptListContents, 1, CourseDatabase.DEPARTMENT_LIST.length);
+                    for (int i = 0; i < departments.size(); i++) {
+                        deptListContents[i + 1] = departments.get(i);
+                    }
                     cmb_deptList.setModel(new javax.swing.DefaultComboBoxModel(deptListContents));
                     // Initialize contents of Focus JComboBox
                     String[] focusListContents = {"Any", "ETH", "HAP", "OC", "WI"};
@@ -64,92 +67,48 @@ public class CourseApplet extends javax.swing.JApplet {
     
     /**
      * This is a nested anonymous SwingWorker class that will download the 
-     * necessary HTML web page data in the background.  
+     * necessary HTML web page data in the background.  The matches of each
+     * department are added to the results table as soon as that department
+     * is loaded.
      * @author Alex Chantavy
      */
-    private class LoadEntireCatalogTask extends SwingWorker<Void, String> {
+    private class LoadEntireCatalogTask extends SwingWorker<Void, CoursePipeline.DepartmentResult> {
         boolean successful = false;
+        /** Shown next to the results when the search is over, if not null */
+        String message;
         @SuppressWarnings("finally")
 	@Override
         public Void doInBackground() {
             try {
                 indeterminateProgressBar.setIndeterminate(true);
-                //Clear out the console window
-                if (!console.getText().equals("")) {
-                    console.setText("");
-                }
-                loaded_courses = new LinkedList<Course>();
                 LinkedList<String> departmentsToLoad = new LinkedList<String>();
                 // Figure out whether to open all departments or just one
                 if (criteria.getDepartment().equals("Any")) {
-                    departmentsToLoad.addAll(Arrays.asList(CourseDatabase.DEPARTMENT_LIST));
+                    departmentsToLoad.addAll(CourseDatabase.getDepartmentRegistry().getLoadableDepartments());
                 }
                 else {
                     departmentsToLoad.add(criteria.getDepartment());
                 }
 
-                // Load up all the classes of selected department(s)
-                for (String dept : departmentsToLoad) {
-                    if (Thread.interrupted()) {
-                        throw new InterruptedException();
+                // Load up all the classes of selected department(s), several at a time,
+                // keeping only those that satisfy every criterion as each department arrives
+                CoursePipeline pipeline = new CoursePipeline(CourseQuery.compile(criteria),
+                        CourseDatabase.DEFAULT_PARALLELISM);
+                loaded_courses = pipeline.run(departmentsToLoad, new CoursePipeline.ResultListener() {
+                    public void departmentFiltered(CoursePipeline.DepartmentResult result) {
+                        publish(result); //Report the department and show its matches right away
                     }
-                    publish(dept); //Report which Department is currently downloading
-                    CourseDatabase.downloadTextFromURL(
-                                        CourseDatabase.CLASS_DB_URL + dept);
-                                        loaded_courses.addAll(CourseDatabase.parseCourses());
-                    
-                }
-
-                System.out.println("Before remove, there are"+ loaded_courses.size() +" courses");
-                String reqDiv, reqGened, reqFocus;
-                boolean reqOnline = false;
-                reqDiv = criteria.getDiv();
-                reqGened = criteria.getGenEd();
-                reqFocus = criteria.getFocus();
-                reqOnline = criteria.onlineCoursesRequired();
-                
-                // If the user has no preference for gen end reqs, div reqs, focus
-                // reqs, or availability, there is no need for us to filter the results.
-                // So, do nothing.
-                System.out.println("Requested GenEd: " + reqGened);
-                System.out.println("Requested Div: " + reqDiv);
-                System.out.println("Requested Focus: " + reqFocus);
-                if (reqGened.equals("Any") &&
-                        reqDiv.equals("Any") &&
-                        reqFocus.equals("Any") &&
-                        !reqOnline) {
-                    // do nothing, we don't need to remove anything from the list
-                }
-                else {
-                    // Check the list of loaded courses, removing courses that do
-                    // not satisfy the user-specified criteria. Iterator is used because
-                    // it is thread-safe.
-                    Iterator<Course> it = loaded_courses.iterator();
-                    while (it.hasNext()) {
-                        Course c = it.next();
-                        String focusString = c.getFocus();
-                        // First check if the course fulfills requirements of the user.
-                        // If so, no need to remove the course from the list.
-
-                        System.out.println("Focus string for :" + c.getCourseAbbrev() +" is " + focusString);
-                        if  ((!reqDiv.equals("Any")   && !focusString.contains(reqDiv))   || 
-                             (!reqFocus.equals("Any") && !focusString.contains(reqFocus)) ||
-                             (!reqGened.equals("Any") && !focusString.contains(reqGened)) ||
-                             (reqOnline               && !Course.isOnline(c)))             {
-                        	it.remove();
-                        }
-                    }
-                }
+                });
                 successful = true;
             }
             catch (InterruptedException e) {
                 loaded_courses = null;
                 indeterminateProgressBar.setIndeterminate(false);
-                console.setText("Load cancelled.");
+                message = "Load cancelled.";
             }
             catch (InvalidFileFormatException e) {
                 e.printStackTrace();
-                console.setText(e.toString());
+                message = e.toString();
             }
             catch (IOException e) {
                 JOptionPane.showMessageDialog(null, "IOException\nPlease check " +
@@ -175,22 +134,32 @@ public class CourseApplet extends javax.swing.JApplet {
         public void done() {
             if (successful) {
                 if (loaded_courses.size()==0) {
-                    console.setText("No courses match your criteria.  Please try again.");
+                    message = "No courses match your criteria.  Please try again.";
                 }
                 else {
-                    console.setText(console.getText() + "\n" + 
-                            CourseDatabase.courseListToString(loaded_courses));
+                    message = loaded_courses.size() + " courses found.";
                 }
             }
+            if (message != null) {
+                lbl_viewResults.setText("Step 2: View Results - " + message);
+            }
             btn_search.setEnabled(true);
             lbl_processing.setEnabled(false);
             fld_progressText.setEnabled(false);
         }
 
         @Override
-        public void process (List<String> data) {
-            String s = data.get(data.size()-1);
+        public void process (List<CoursePipeline.DepartmentResult> data) {
+            // Chunks published before a cancel are still delivered; keep them out of a newer search's table
+            if (isCancelled() || this != load_task) {
+                return;
+            }
+            String s = data.get(data.size()-1).getDepartment();
             fld_progressText.setText(s);
+            // Add the new matches to the table, which only renders the visible rows
+            for (CoursePipeline.DepartmentResult result : data) {
+                results.addCourses(result.getMatches());
+            }
         }
     }
 
@@ -216,7 +185,7 @@ public class CourseApplet extends javax.swing.JApplet {
         cmb_divReqList = new javax.swing.JComboBox();
         jSeparator1 = new javax.swing.JSeparator();
         jScrollPane1 = new javax.swing.JScrollPane();
-        console = new javax.swing.JEditorPane();
+        tbl_results = new javax.swing.JTable();
         lbl_viewResults = new javax.swing.JLabel();
         btn_search = new javax.swing.JButton();
         fld_progressText = new javax.swing.JTextField();
@@ -255,7 +224,10 @@ public class CourseApplet extends javax.swing.JApplet {
 
         jSeparator1.setOrientation(javax.swing.SwingConstants.VERTICAL);
 
-        jScrollPane1.setViewportView(console);
+        tbl_results.setAutoCreateRowSorter(true);
+        tbl_results.setModel(results);
+        tbl_results.setAutoResizeMode(javax.swing.JTable.AUTO_RESIZE_OFF);
+        jScrollPane1.setViewportView(tbl_results);
 
         lbl_viewResults.setText("Step 2: View Results");
 
@@ -392,6 +364,8 @@ public class CourseApplet extends javax.swing.JApplet {
             btn_search.setText("Cancel");
             lbl_processing.setEnabled(true);
             fld_progressText.setEnabled(true);
+            lbl_viewResults.setText("Step 2: View Results");
+            results.clear();
             load_task = new LoadEntireCatalogTask();
             load_task.execute();
         }
@@ -413,7 +387,6 @@ public class CourseApplet extends javax.swing.JApplet {
     private javax.swing.JComboBox cmb_divReqList;
     private javax.swing.JComboBox cmb_focusList;
     private javax.swing.JComboBox cmb_genEdList;
-    private javax.swing.JEditorPane console;
     private javax.swing.JTextField fld_progressText;
     private javax.swing.JProgressBar indeterminateProgressBar;
     private javax.swing.JScrollPane jScrollPane1;
@@ -426,6 +399,7 @@ public class CourseApplet extends javax.swing.JApplet {
     private javax.swing.JLabel lbl_processing;
     private javax.swing.JLabel lbl_title;
     private javax.swing.JLabel lbl_viewResults;
+    private javax.swing.JTable tbl_results;
     // End of variables declaration//GEN-END:variables
 
 }
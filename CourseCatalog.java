@@ -0,0 +1,157 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, indexed list of courses that queries are run against.
+ * <p>Each course is identified by its row, i.e. its position in the catalog.  Besides
+ * the courses themselves, the catalog keeps a <code>RequirementIndex</code>, a
+ * <code>MeetingTimeIndex</code> and the rows of every department, so that those parts of a
+ * query are answered with bitset operations.  A <code>CrnIndex</code> finds the course of a CRN,
+ * an <code>AbbreviationTrie</code> the courses whose abbreviation starts with a prefix and a
+ * <code>TextIndex</code> the courses whose title or instructor hold some words, without
+ * scanning the catalog.  All the indexes are built in a single pass over the courses,
+ * row by row, and since a catalog never changes, they always agree with its courses; a refresh
+ * publishes a new catalog with new indexes.
+ * @see alexchantavy.CourseQuery
+ * @author Alex Chantavy
+ */
+public class CourseCatalog {
+
+    private final List<Course> courses;
+    private final RequirementIndex requirementIndex;
+    private final MeetingTimeIndex meetingTimeIndex;
+    /** Rows of the courses of every department */
+    private final Map<String, BitSet> departments = new HashMap<String, BitSet>();
+    private final CrnIndex crnIndex;
+    private final AbbreviationTrie abbreviations;
+    private final TextIndex textIndex = new TextIndex();
+
+    /**
+     * Creates a catalog of the given courses.  The list is copied.
+     * @param courses The courses of the catalog
+     */
+    public CourseCatalog(List<Course> courses) {
+        this.courses = Collections.unmodifiableList(new ArrayList<Course>(courses));
+        this.requirementIndex = new RequirementIndex(this.courses);
+        this.meetingTimeIndex = new MeetingTimeIndex(this.courses);
+        this.crnIndex = new CrnIndex(this.courses.size());
+        this.abbreviations = new AbbreviationTrie(this.courses.size());
+        for (int row = 0; row < this.courses.size(); row++) {
+            Course c = this.courses.get(row);
+            crnIndex.put(c.getCrn(), row);
+            abbreviations.add(c.getCourseAbbrev());
+            textIndex.add(c.getTitle(), c.getInstructor());
+            String dept = c.getDepartment();
+            BitSet rows = departments.get(dept);
+            if (rows == null) {
+                rows = new BitSet();
+                departments.put(dept, rows);
+            }
+            rows.set(row);
+        }
+    }
+
+    /**
+     * Returns the number of courses in the catalog
+     * @return The number of courses
+     */
+    public int size() {
+        return courses.size();
+    }
+
+    /**
+     * Returns the course at the given row
+     * @param row The row
+     * @return The course
+     */
+    public Course get(int row) {
+        return courses.get(row);
+    }
+
+    /**
+     * Returns every course of the catalog
+     * @return An unmodifiable list of the courses, in row order
+     */
+    public List<Course> getCourses() {
+        return courses;
+    }
+
+    /**
+     * Returns the index of the requirements fulfilled by the courses
+     * @return The requirement index
+     */
+    public RequirementIndex getRequirementIndex() {
+        return requirementIndex;
+    }
+
+    /**
+     * Returns the index of the days and times the courses meet
+     * @return The meeting time index
+     */
+    public MeetingTimeIndex getMeetingTimeIndex() {
+        return meetingTimeIndex;
+    }
+
+    /**
+     * Returns the full-text index of the titles and instructors of the courses
+     * @return The text index
+     */
+    public TextIndex getTextIndex() {
+        return textIndex;
+    }
+
+    /**
+     * Returns the rows of the courses of the given department
+     * @param dept The department, e.g. ICS
+     * @return A new BitSet of the rows, empty if the department has no courses
+     */
+    public BitSet departmentRows(String dept) {
+        BitSet rows = departments.get(dept);
+        return rows == null ? new BitSet() : (BitSet) rows.clone();
+    }
+
+    /**
+     * Returns the row of the course with the given CRN
+     * @param crn The CRN
+     * @return The row, or -1 if no course has the CRN
+     */
+    public int rowOfCrn(int crn) {
+        return crnIndex.get(crn);
+    }
+
+    /**
+     * Returns the course with the given CRN
+     * @param crn The CRN
+     * @return The course, or <code>null</code> if no course has the CRN
+     */
+    public Course findByCrn(int crn) {
+        int row = crnIndex.get(crn);
+        return row < 0 ? null : courses.get(row);
+    }
+
+    /**
+     * Returns the rows of the courses whose abbreviation starts with a prefix
+     * @param prefix The prefix, e.g. "MATH 2", "ICS 31" or "ENG", ignoring case and spaces
+     * @return A new BitSet of the rows, empty if none matches
+     */
+    public BitSet abbreviationRows(String prefix) {
+        return abbreviations.rows(prefix);
+    }
+
+    /**
+     * Returns the distinct course abbreviations starting with a prefix, to suggest courses as a
+     * user types
+     * @param prefix The prefix, ignoring case and spaces
+     * @param limit The maximum number of abbreviations returned
+     * @return A new list of the abbreviations, in alphabetical order
+     */
+    public List<String> completeAbbreviation(String prefix, int limit) {
+        return abbreviations.complete(prefix, limit);
+    }
+}
@@ -1,23 +1,29 @@
 package alexchantavy;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.swing.text.ChangedCharSetException;
-import javax.swing.text.html.HTMLEditorKit;
-import javax.swing.text.html.parser.ParserDelegator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class contains methods to download and parse the UH Class Availability database website
- * and extract its table data as Course objects.  These objects are saved in a <code>course_list</code>
- * LinkedList.  To parse the HTML, we use an HTMLEditorkit.ParserCallback class, which saves each line
- * into the linked list of Strings <code>temp_ascii_storage</code>.
+ * and extract its table data as Course objects.  These objects are kept in an immutable
+ * <code>CourseCatalog</code>, which is replaced as a whole whenever the courses change: readers
+ * always see one complete version without locking, even while a refresh is running.  To parse
+ * the HTML, we use an <code>HtmlTableTokenizer</code>, which feeds the text of each table cell
+ * straight into its own <code>CourseParser</code>, so that several departments can be
+ * downloaded and parsed at the same time without buffering whole pages.
  * @author Alex Chantavy
  */
 public class CourseDatabase {
@@ -25,42 +31,23 @@ public class CourseDatabase {
     //////////////////////
     //  M e m b e r s   //
     //////////////////////
-    /** Contains all Course objects of the database*/
-    private LinkedList<Course> course_list;
+    /** The current version of the courses of the database.  Never modified, only replaced. */
+    private final AtomicReference<CourseCatalog> catalog = new AtomicReference<CourseCatalog>();
     //////////////////////////
     //  C o n s t a n t s   //
     //////////////////////////
-    /** Regex pattern for 5 digit course numbers (CRNs) */
-    private static final Pattern CRN = Pattern.compile("\\d{5}");
-    /** Regex pattern for course declarations, e.g., ENG 100, ICS 311, EE 160, etc.*/
-    private static final Pattern COURSE = Pattern.compile("^[A-Z]{2,4} \\d{3}[A-Z]?$");
-    /** Regex pattern for 3 digit section numbers*/
-    private static final Pattern SECTION = Pattern.compile("^\\d{2,3}$");
-    /** Regex pattern for course titles.  May contain letters, hyphens, parenthesis,
-     * single quotes, ampersands and colons.  */
-    private static final Pattern TITLE = Pattern.compile("^[A-Za-z,-\\\\(\\\\)\\\\'\\\\&: ]+$");
-    /** Regex pattern for credits.  May contain decimal points and hyphens
-     * for variable amounts of credits. */
-    private static final Pattern CREDITS = Pattern.compile("^[\\d-./]+$");
-    /** Regex pattern for instructor's name.  May be hyphenated */
-    private static final Pattern INSTRUCTOR = Pattern.compile("^[\\w-' ]+$");
-    /** Regex pattern for number of seats. */
-    private static final Pattern SEATS = Pattern.compile("^\\d+$");
-    /** Regex pattern for days, which may contain combinations of "M, T, W, R, F, S" */
-    private static final Pattern DAYS = Pattern.compile("^[MTWRFS]+$");
-    /** Regex pattern for start time.  Consists of four digits followed by a hyphen.*/
-    private static final Pattern START_TIME = Pattern.compile("^\\d{4}-$");
-    /** Regex pattern for end time.  Consists of four digits followed by an 'a' or 'p' */
-    private static final Pattern END_TIME = Pattern.compile("^\\d{4}[a|p]$");
-    /** Regex pattern  for room number */
-    private static final Pattern ROOM = Pattern.compile("^[A-Z\\d/\\- ]+$");
-    /** Regex pattern for dates */
-    private static final Pattern DATES = Pattern.compile("^\\d{2}/\\d{2}-\\d{2}/\\d{2}$");
-    /** Regex pattern for department name */
-    private static final Pattern DEPARTMENT = Pattern.compile("[A-Z]{2,4}");
-    /* root URL of the class availability website */
-    public static final String CLASS_DB_URL = "http://www.sis.hawaii.edu/uhdad/avail.classes?i=MAN&t=201210&s=";
-    /** Array containing four letter abbreviations of all departments at UHM as of Fall 2010 */
+    /** Root URL of the class availability website, without institution, term or department */
+    public static final String CLASS_DB_ROOT = "http://www.sis.hawaii.edu/uhdad/avail.classes";
+    /** Institution searched by default, i.e. UH Manoa */
+    public static final String DEFAULT_INSTITUTION = "MAN";
+    /** Term searched by default, i.e. Fall 2011 */
+    public static final String DEFAULT_TERM = "201210";
+    /** URL of the department pages of the default partition, i.e. the default institution and
+     * term, to which a department abbreviation is appended */
+    public static final String CLASS_DB_URL = departmentURL(DEFAULT_INSTITUTION, DEFAULT_TERM);
+    /** Array containing four letter abbreviations of all departments at UHM as of Fall 2010.
+     * Only used until the departments of the term are discovered, see
+     * <code>getDepartmentRegistry()</code>. */
     public static final String[] DEPARTMENT_LIST = {"ACC", "ACM", "AMST", "ANAT",
         "ANSC", "ANTH", "APDM", "ARAB", "ARCH", "ART", "AS", "ASAN", "ASTR",
         "BE", "BIOC", "BIOL", "BIOM", "BLAW", "BOT", "BUS", "CAAM", "CAM",
@@ -79,14 +66,49 @@ public class CourseDatabase {
         "RUS", "SAM", "SLS", "SNSK", "SOC", "SOCS", "SP", "SPAN", "SPED",
         "SURG", "SW", "TAHT", "THAI", "THEA", "TI", "TIM", "TONG", "TPSS",
         "TRMD", "VIET", "WS", "ZOOL"};
-    /** temporary storage of the last text file parsed. **/
-    private static LinkedList<String> temp_ascii_storage = new LinkedList<String>();
+    /** Default number of departments downloaded at the same time by <code>loadAllDepartments()</code>.
+     * The fetch scheduler lowers the number of requests actually sent when the server slows down. */
+    public static final int DEFAULT_PARALLELISM = 16;
+    /** Maximum size of the department pages kept by the page cache */
+    public static final long DEFAULT_CACHE_BYTES = 32L << 20;
+    /** Rate limits, times out and retries the requests to the Class Availability website */
+    private static final FetchScheduler fetchScheduler = new FetchScheduler();
+    /** Department pages downloaded so far, revalidated instead of downloaded again */
+    private static final PageCache pageCache = new PageCache(DEFAULT_CACHE_BYTES, fetchScheduler);
+    static {
+        // One malformed row shouldn't cost a whole department
+        pageCache.setLenient(true);
+        // Pages above DEFAULT_MIN_PAGE_BYTES are split between the cores of the common pool;
+        // smaller ones, and every page on a single core, are still parsed sequentially
+        pageCache.setParallelParser(new ParallelPageParser(ForkJoinPool.commonPool(),
+                ParallelPageParser.DEFAULT_CHUNK_LINES, ParallelPageParser.DEFAULT_MIN_PAGE_BYTES));
+    }
+    /** The departments of the default institution and term */
+    private static final DepartmentRegistry departments = new DepartmentRegistry(DEFAULT_INSTITUTION, DEFAULT_TERM);
+    /** How long a downloaded department is shared with callers asking for it again */
+    public static final long COALESCING_WINDOW_MILLIS = 10 * 1000;
+    /** Department downloads in progress, shared by every caller asking for the same page */
+    private static final SingleFlight<LinkedList<Course>> downloads =
+            new SingleFlight<LinkedList<Course>>(COALESCING_WINDOW_MILLIS);
+
+    /**
+     * Receives progress reports from <code>loadDepartments()</code>.  Since departments
+     * are loaded concurrently, implementations may be called from several worker threads.
+     */
+    public interface LoadListener {
+        /**
+         * Called once for every department as soon as its courses are parsed.
+         * @param dept The department that finished loading
+         * @param courses The courses parsed from that department's page
+         */
+        void departmentLoaded(String dept, LinkedList<Course> courses);
+    }
 
     ////////////////////////////////
     //  C o n s t r u c t o r s   //
     ////////////////////////////////
     public CourseDatabase() {
-        this.course_list = new LinkedList<Course>();
+        this.catalog.set(new CourseCatalog(new LinkedList<Course>()));
     }
 
     /**
@@ -95,7 +117,7 @@ public class CourseDatabase {
      */
     public CourseDatabase(LinkedList<Course> course_list) {
         super();
-        this.course_list = course_list;
+        this.catalog.set(new CourseCatalog(course_list));
     }
 
     /**
@@ -105,15 +127,8 @@ public class CourseDatabase {
      * @throws InvalidFileFormatException
      */
     public CourseDatabase(String dept) throws NoSuchDepartmentException, InvalidFileFormatException, IOException {
-        boolean isValidDepartment = false;
-        for (String s : DEPARTMENT_LIST) {
-            if (s.equals(dept)) {
-                isValidDepartment = true;
-            }
-        }
-        if (isValidDepartment) {
-            this.course_list = new LinkedList<Course>();
-            this.course_list = downloadAndSaveDepartment(dept);
+        if (departments.isValid(dept)) {
+            this.catalog.set(new CourseCatalog(downloadAndSaveDepartment(dept)));
         } else {
             throw new NoSuchDepartmentException(dept);
         }
@@ -127,22 +142,31 @@ public class CourseDatabase {
      * @return The size of the database
      */
     public int size() {
-        return this.course_list.size();
+        return this.catalog.get().size();
+    }
+
+    /**
+     * Returns the current version of the courses with their indexes.  The catalog never
+     * changes; a later refresh or append publishes a new one.
+     * @return The current catalog
+     */
+    public CourseCatalog getCatalog() {
+        return this.catalog.get();
     }
 
     /**
      * Returns the list of courses that the database contains
-     * @return the list of courses contained by this database
+     * @return A new list of the courses of the current catalog
      */
     public LinkedList<Course> getCourseList() {
-        return this.course_list;
+        return new LinkedList<Course>(this.catalog.get().getCourses());
     }
 
     /**
      * Prints out all the Courses of a database to the console
      */
     public void printDatabase() {
-        for (Course c : this.course_list) {
+        for (Course c : this.catalog.get().getCourses()) {
             System.out.println(c);
         }
     }
@@ -153,31 +177,84 @@ public class CourseDatabase {
      * @return A nicely formatted string of courses
      */
     public static String courseListToString(LinkedList<Course> courseList) {
-        String s = "";
+        StringBuilder s = new StringBuilder();
         for (Course c : courseList) {
-            s += c.toString() + "\n\n";
+            s.append(c.toString()).append("\n\n");
         }
-        return s;
+        return s.toString();
     }
 
     @Override
     public String toString() {
-        String s = "";
-        for (Course c : this.course_list) {
-            s += c.toString();
+        StringBuilder s = new StringBuilder();
+        for (Course c : this.catalog.get().getCourses()) {
+            s.append(c.toString());
         }
-        return s;
+        return s.toString();
     }
 
     /**
-     * Appends the given LinkedList of courses to this database's <code>course_list</code>
+     * Saves the courses of this database to a binary snapshot file, to be loaded by
+     * <code>loadSnapshot(File)</code> at the next start.
+     * @param snapshot The snapshot file, overwritten if it exists
+     * @throws IOException If writing the file fails
+     */
+    public void saveSnapshot(File snapshot) throws IOException {
+        CatalogSnapshot.write(this.catalog.get().getCourses(), departments, snapshot);
+    }
+
+    /**
+     * Replaces every course of the database.  The indexes of the new catalog are built before
+     * it is published, so searches keep using the current one until then.
+     * @param courses The new courses
+     * @return The published catalog
+     */
+    public CourseCatalog replaceCourses(List<Course> courses) {
+        CourseCatalog next = new CourseCatalog(courses);
+        this.catalog.set(next);
+        return next;
+    }
+
+    /**
+     * Downloads every department again on a background thread.  When done, a catalog of the
+     * new courses replaces the current one and is saved to the snapshot file.  If the download
+     * fails, the database keeps its current courses.
+     * @param snapshot The snapshot file to update, may be <code>null</code>
+     * @return A Future of the number of courses loaded, which throws the failure of the refresh
+     */
+    public Future<Integer> refreshInBackground(final File snapshot) {
+        FutureTask<Integer> refresh = new FutureTask<Integer>(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                CourseCatalog next = replaceCourses(loadAllDepartments());
+                if (snapshot != null) {
+                    CatalogSnapshot.write(next.getCourses(), departments, snapshot);
+                }
+                return next.size();
+            }
+        });
+        Thread thread = new Thread(refresh, "catalog-refresh");
+        thread.setDaemon(true);
+        thread.start();
+        return refresh;
+    }
+
+    /**
+     * Appends the given LinkedList of courses to this database, publishing a new catalog.
+     * Concurrent appends are retried, so none of them is lost.
      * @param toBeAppended
      * @return true if successful, false if unsuccessful
      */
     public boolean append(LinkedList<Course> toBeAppended) {
         try {
-            this.course_list.addAll(toBeAppended);
-            return true;
+            while (true) {
+                CourseCatalog current = this.catalog.get();
+                List<Course> courses = new ArrayList<Course>(current.size() + toBeAppended.size());
+                courses.addAll(current.getCourses());
+                courses.addAll(toBeAppended);
+                if (this.catalog.compareAndSet(current, new CourseCatalog(courses))) {
+                    return true;
+                }
+            }
         } catch (Exception e) {
             return false;
         }
@@ -187,234 +264,224 @@ public class CourseDatabase {
     // S t a t i c  M e t h o d s   //
     //////////////////////////////////
     /**
-     * Connects to the webpage referenced by the given URL and uses a ParserDelgator
-     * to extract the text from the page.  This text is then saved in memory as
-     * temp_ascii_access
-     * @param url The URL of the HTML file
+     * Returns the URL of the department pages of an institution and term, to which the
+     * department abbreviation is appended
+     * @param institution The institution code, e.g. MAN for Manoa
+     * @param term The term code, e.g. 201210
+     * @return The URL without the department at its end
      */
-    protected static void downloadTextFromURL(String url) throws IOException {
-        try {
-            URL target = new URL(url);
-            URLConnection connection = target.openConnection();
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(connection.getInputStream(), "UTF-8"));
-            boolean ignoreCharset = true; //to prevent ChangedCharSetExceptions
-            new ParserDelegator().parse(reader, new CallbackHandler(), ignoreCharset);
-            reader.close();
-        } catch (ChangedCharSetException e) {
-            System.out.println(e.getCharSetSpec());
-        } catch (IOException e) {
-            throw new IOException();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    public static String departmentURL(String institution, String term) {
+        return indexURL(institution, term) + "&s=";
     }
 
     /**
-     * Class used to parse HTML in order to extract text from a webpage.
+     * Returns the URL of the page listing the departments of an institution in a term
+     * @param institution The institution code, e.g. MAN
+     * @param term The term code, e.g. 201210
+     * @return The URL of the index page
      */
-    private static class CallbackHandler extends HTMLEditorKit.ParserCallback {
-
-        /** Determines whether to append to temp.txt.  Initally <code>false</code> to overwrite any possible old data.
-         * Becomes <code>true</code> in parsing to append lines. */
-        // No longer needed: private static boolean appendStatus = false; //initially false to overwrite any possible old data
-        public CallbackHandler() {
-        }
-        Pattern allowedCharacters = Pattern.compile("^[A-Za-z0-9/:,-\\\\'&=() ]+$");
-
-        /**
-         * Takes text from a BufferedReader and appends it to the text file temp.txt.
-         */
-        @Override
-        public void handleText(char[] data, int pos) {
-            String line = String.valueOf(data); // convert char[] to String
-            if (allowedCharacters.matcher(line).matches()) {
-                temp_ascii_storage.add(line);
-            }
-        }
+    public static String indexURL(String institution, String term) {
+        return CLASS_DB_ROOT + "?i=" + institution + "&t=" + term;
     }
 
     /**
-     * The heart of parsing UH Class Availability data.
-     * <p>Given a text file (that was created as a result of <code>downloadTextFromURL(String)</code>),
-     * the method parses each line and saves the data as a LinkedList of Course objects.
-     * <p>Matching of <code>Course</code> data fields is done with regular expressions to verify
-     * correct input.  If abnormalities in the file are found, the method throws an InvalidFileFormatException
-     * with line numbers.  There are many hardcoded segments to check for variations in table data, e.g., 'TBA'
-     * present being present instead of room number, or multiple meeting times and room numbers.
-     * <p>At the time of this implementation, this string processing method works on the 2011 Spring UH Manoa
-     * Class Availability list.
-     * @param filename The filename of the text file to read from
-     * @return A LinkedList of Course objects from the file
-     * @throws InvalidFileFormatException When the given text file is malformed
+     * Returns the departments of the default institution and term, used to check department
+     * names and to pick the departments loaded by <code>loadAllDepartments()</code>
+     * @return The department registry
      */
-    public static LinkedList<Course> parseCourses() throws InvalidFileFormatException {
-        LinkedList<Course> courses = new LinkedList<Course>();
-        String focus, courseNum, section, department, course, title, instructor, days,
-                startTime, endTime, room, dates, credits, seatsAvail;
-        //Store the lines of the text file in a LinkedList of Strings
-
-        //old way: LinkedList<String> allLines = createLinkedListFromFile(filename);
-        for (int i = 0; i < temp_ascii_storage.size(); i++) {
-            String currentLine = temp_ascii_storage.get(i);
-            String prevLine = i == 0 ? temp_ascii_storage.get(0) : temp_ascii_storage.get(i - 1);
-            if (CRN.matcher(currentLine).matches()) {
-                courseNum = currentLine;
-                if (prevLine.contains("FGA") || prevLine.contains("DA")
-                        || prevLine.contains("DP") || prevLine.contains("FGB") || prevLine.contains("FGC")
-                        || prevLine.contains("DH") || prevLine.contains("DY") || prevLine.contains("FS")
-                        || prevLine.contains("DL") || prevLine.contains("HSL") || prevLine.contains("FW")
-                        || prevLine.contains("NI") || prevLine.contains("ETH") || prevLine.contains("HAP")
-                        || prevLine.contains("OC") || prevLine.contains("WI")) {
-                    focus = prevLine;
-                } else {
-                    focus = "none";
-                }
+    public static DepartmentRegistry getDepartmentRegistry() {
+        return departments;
+    }
 
-                prevLine = currentLine;
-                i++;
-                currentLine = temp_ascii_storage.get(i);
-                if (COURSE.matcher(currentLine).matches()) {
-                    course = currentLine;
-                    Matcher match = DEPARTMENT.matcher(currentLine);
-                    if (match.find()) {
-                        department = match.group();
-                    } else {
-                        department = "";
-                    }
-                } else {
-                    throw new InvalidFileFormatException("Course", prevLine, currentLine, i + 1);
-                }
+    /**
+     * Returns the cache of department pages used by <code>downloadAndSaveDepartment()</code>
+     * and <code>loadDepartments()</code>
+     * @return The page cache
+     */
+    public static PageCache getPageCache() {
+        return pageCache;
+    }
 
-                prevLine = currentLine;
-                i++;
-                currentLine = temp_ascii_storage.get(i);
-                if (SECTION.matcher(currentLine).matches()) {
-                    section = currentLine;
-                } else {
-                    throw new InvalidFileFormatException("Section", prevLine, currentLine, i + 1);
-                }
+    /**
+     * Returns how many rows of a department's page were parsed and skipped the last time it was
+     * parsed by the page cache, and why each skipped row was skipped
+     * @param dept The department abbreviation
+     * @return The report, or <code>null</code> if the department's page isn't cached
+     */
+    public static ParseReport getParseReport(String dept) {
+        return pageCache.getReport(CLASS_DB_URL + dept);
+    }
 
-                prevLine = currentLine;
-                i++;
-                currentLine = temp_ascii_storage.get(i);
-                if (TITLE.matcher(currentLine).matches()) {
-                    title = currentLine;
-                } else {
-                    throw new InvalidFileFormatException("Title", prevLine, currentLine, i + 1);
-                }
+    /**
+     * Returns the scheduler of the requests made by the page cache, to tune its rate,
+     * concurrency, timeouts, retries and hedging
+     * @return The fetch scheduler
+     */
+    public static FetchScheduler getFetchScheduler() {
+        return fetchScheduler;
+    }
 
-                prevLine = currentLine;
-                i++;
-                currentLine = temp_ascii_storage.get(i);
-                if (CREDITS.matcher(currentLine).matches()) {
-                    credits = currentLine;
-                } else if (CREDITS.matcher(temp_ascii_storage.get(i + 1)).matches()) {
-                    i++;
-                    prevLine = currentLine;
-                    currentLine = temp_ascii_storage.get(i);
-                    credits = currentLine;
-                } else if ((CREDITS.matcher(temp_ascii_storage.get(i + 2)).matches())) {
-                    i += 2;
-                    prevLine = currentLine;
-                    currentLine = temp_ascii_storage.get(i);
-                    credits = currentLine;
-                } else {
-                    throw new InvalidFileFormatException("Credits", prevLine, currentLine, i + 1);
+    /**
+     * Returns the courses of the page at the given URL through the page cache.  Concurrent
+     * callers asking for the same page, and callers asking within
+     * <code>COALESCING_WINDOW_MILLIS</code> of a successful download, share a single download.
+     * @param url The URL of the department page
+     * @return A new LinkedList of the courses of the page
+     * @throws IOException If downloading the page fails
+     * @throws InvalidFileFormatException When the page is malformed
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    static LinkedList<Course> fetchPage(final String url) throws IOException, InvalidFileFormatException, InterruptedException {
+        try {
+            return new LinkedList<Course>(downloads.get(url, new Callable<LinkedList<Course>>() {
+                public LinkedList<Course> call() throws Exception {
+                    return pageCache.fetch(url);
                 }
+            }));
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        }
+    }
 
-                prevLine = currentLine;
-                i++;
-                currentLine = temp_ascii_storage.get(i);
-                if (INSTRUCTOR.matcher(currentLine).matches()
-                        || currentLine.equals("TBA")) {
-                    instructor = currentLine;
-                } else {
-                    throw new InvalidFileFormatException("Instructor", prevLine, currentLine, i + 1);
-                }
+    /**
+     * Returns the courses of the page at the given URL that match a query.  The whole page is
+     * fetched through <code>fetchPage(String)</code>, so it is cached and its download is shared
+     * with concurrent callers, then its courses are filtered.
+     * @param url The URL of the department page
+     * @param query The query, or <code>null</code> for every course
+     * @return A new LinkedList of the matching courses of the page
+     * @throws IOException If downloading the page fails
+     * @throws InvalidFileFormatException When the page is malformed
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    static LinkedList<Course> fetchPage(String url, CourseQuery query) throws IOException, InvalidFileFormatException, InterruptedException {
+        LinkedList<Course> courses = fetchPage(url);
+        return query == null ? courses : query.filter(courses);
+    }
 
-                prevLine = currentLine;
-                i++;
-                currentLine = temp_ascii_storage.get(i);
-                if (SEATS.matcher(currentLine).matches()) {
-                    seatsAvail = currentLine;
-                } else {
-                    throw new InvalidFileFormatException("Seats", prevLine, currentLine, i + 1);
-                }
-                Course newCourse = new Course(department, focus, courseNum, course, section,
-                        title, instructor, seatsAvail, credits);
-                
-                currentLine = temp_ascii_storage.get(i);
-                do {
-                    prevLine = currentLine;
-                    i++;
-                    //System.out.println("Prev line " + prevLine);
-                    currentLine = temp_ascii_storage.get(i);
-                    //System.out.println("Current")
-                    prevLine = currentLine;
-                    i++;
-                    if (DAYS.matcher(currentLine).matches()
-                            || currentLine.equals("TBA")) {
-                        days = currentLine;
-                    } else {
-                        throw new InvalidFileFormatException("Days", prevLine, currentLine, i + 1);
-                    }
+    /**
+     * Rethrows the cause of a failed download
+     * @param e The failure
+     * @return Never returns; declared so that callers can write <code>throw rethrow(e)</code>
+     * @throws InvalidFileFormatException If the download failed to parse
+     * @throws IOException If the download failed otherwise
+     */
+    private static IOException rethrow(ExecutionException e) throws InvalidFileFormatException, IOException {
+        Throwable cause = e.getCause();
+        if (cause instanceof InvalidFileFormatException) {
+            throw (InvalidFileFormatException) cause;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException(cause);
+    }
 
-                    prevLine = currentLine;
-                    i++;
-                    currentLine = temp_ascii_storage.get(i);
-                    if (START_TIME.matcher(currentLine).matches()
-                            || currentLine.equals("TBA")) {
-                        startTime = currentLine;
-                    } else {
-                        throw new InvalidFileFormatException("Start time", prevLine, currentLine, i + 1);
-                    }
+    /**
+     * Reads a UH Class Availability page with an <code>HtmlTableTokenizer</code>, feeding the
+     * text of each table cell straight into a <code>CourseParser</code>.
+     * @param page The bytes of the HTML page.  The stream is not closed.
+     * @return A LinkedList of Course objects from the page
+     * @throws IOException If reading the page fails
+     * @throws InvalidFileFormatException When the page is malformed
+     */
+    public static LinkedList<Course> parseCourses(InputStream page) throws IOException, InvalidFileFormatException {
+        return parseCourses(page, null);
+    }
 
-                    prevLine = currentLine;
-                    i++;
-                    currentLine = temp_ascii_storage.get(i);
-                    if (END_TIME.matcher(currentLine).matches()) {
-                        endTime = currentLine;
-                        prevLine = currentLine;
-                        i++;
-                        currentLine = temp_ascii_storage.get(i);
-                    } else if (startTime.equals("TBA")) {
-                        endTime = "TBA"; //this accounts for endTime being blank because start time was TBA.
-                    } else {
-                        throw new InvalidFileFormatException("End time", prevLine, currentLine, i + 1);
-                    }
+    /**
+     * Reads a UH Class Availability page like <code>parseCourses(InputStream)</code>, skipping
+     * malformed rows instead of failing if given a report
+     * @param page The bytes of the HTML page.  The stream is not closed.
+     * @param report Receives the counts of parsed and skipped rows and the errors of the skipped
+     * rows, or <code>null</code> to fail at the first malformed row
+     * @return A LinkedList of Course objects from the page
+     * @throws IOException If reading the page fails
+     * @throws InvalidFileFormatException When the page is malformed and no report is given
+     */
+    public static LinkedList<Course> parseCourses(InputStream page, ParseReport report) throws IOException, InvalidFileFormatException {
+        final LinkedList<Course> courses = new LinkedList<Course>();
+        CourseParser parser = new CourseParser(new CourseParser.CourseListener() {
+            public void courseParsed(Course c) {
+                courses.add(c);
+            }
+        }, report);
+        new HtmlTableTokenizer(parser).tokenize(new BufferedInputStream(page));
+        parser.finish();
+        return courses;
+    }
 
-                    if (ROOM.matcher(currentLine).matches()
-                            || currentLine.contains("TBA")) {
-                        room = currentLine;
-                    } else {
-                        throw new InvalidFileFormatException("Room", prevLine, currentLine, i + 1);
-                    }
+    /**
+     * The heart of parsing UH Class Availability data.
+     * <p>Given the lines of text of a page, feeds each line to a <code>CourseParser</code> and saves
+     * the data as a LinkedList of Course objects.
+     * @param lines The lines of text of a UH Class Availability page
+     * @return A LinkedList of Course objects from the page
+     * @throws InvalidFileFormatException When the given text is malformed
+     * @see alexchantavy.CourseParser
+     */
+    public static LinkedList<Course> parseCourses(List<String> lines) throws InvalidFileFormatException {
+        return parseCourses(lines, null);
+    }
 
-                    prevLine = currentLine;
-                    i++;
-                    currentLine = temp_ascii_storage.get(i);
-                    if (DATES.matcher(currentLine).matches()
-                            || currentLine.contains("TBA")) {
-                        dates = currentLine;
-                    } else {
-                        throw new InvalidFileFormatException("Dates", prevLine, currentLine, i + 1);
-                    }
-                    MeetingTime m = new MeetingTime(days, startTime, endTime, room, dates);
-                    newCourse.addMeetingTime(m);
-                } while (DAYS.matcher(temp_ascii_storage.get(i + 1)).matches()
-                        && !temp_ascii_storage.get(i + 1).equals("FW")
-                        && (!temp_ascii_storage.get(i + 1).equals("FS")
-                        // account for special case where "FW" might be the next line
-                        && START_TIME.matcher(temp_ascii_storage.get(i + 2)).matches()));
-                // System.out.println(newCourse.toString() + "\n");
-                courses.add(newCourse);
+    /**
+     * Parses the lines of text of a page like <code>parseCourses(List)</code>, skipping
+     * malformed rows instead of failing if given a report
+     * @param lines The lines of text of a UH Class Availability page
+     * @param report Receives the counts of parsed and skipped rows and the errors of the skipped
+     * rows, or <code>null</code> to fail at the first malformed row
+     * @return A LinkedList of Course objects from the page
+     * @throws InvalidFileFormatException When the given text is malformed and no report is given
+     */
+    public static LinkedList<Course> parseCourses(List<String> lines, ParseReport report) throws InvalidFileFormatException {
+        final LinkedList<Course> courses = new LinkedList<Course>();
+        CourseParser parser = new CourseParser(new CourseParser.CourseListener() {
+            public void courseParsed(Course c) {
+                courses.add(c);
             }
+        }, report);
+        for (String line : lines) {
+            parser.handleLine(line);
         }
-        temp_ascii_storage.clear();
+        parser.finish();
         return courses;
     }
 
+    /**
+     * Creates a CourseDatabase from a snapshot file written by <code>saveSnapshot(File)</code>,
+     * restoring the departments saved with it into the department registry
+     * @param snapshot The snapshot file
+     * @return A database of the saved courses
+     * @throws IOException If reading the file fails
+     * @throws InvalidFileFormatException If the file is not a valid snapshot
+     */
+    public static CourseDatabase loadSnapshot(File snapshot) throws IOException, InvalidFileFormatException {
+        return new CourseDatabase(CatalogSnapshot.read(snapshot, departments));
+    }
+
+    /**
+     * Starts from the last saved snapshot and refreshes it in the background.  The returned
+     * database holds the snapshot's courses right away, or no courses if the snapshot is
+     * missing or unreadable, and publishes a new catalog once every department is downloaded.
+     * @param snapshot The snapshot file
+     * @return The database
+     */
+    public static CourseDatabase openSnapshot(File snapshot) {
+        CourseDatabase database;
+        try {
+            database = loadSnapshot(snapshot);
+        } catch (IOException e) {
+            database = new CourseDatabase();
+        } catch (InvalidFileFormatException e) {
+            database = new CourseDatabase();
+        }
+        database.refreshInBackground(snapshot);
+        return database;
+    }
+
     /**
      * Takes the given 2-4 letter department abbreviation (e.g., MATH, ENG, EE, etc) and downloads
      * course data of that department, saving it to memory.
@@ -422,40 +489,110 @@ public class CourseDatabase {
      * @param dept The 2-4 letter abbreviation
      * @return The name of the file that course data was saved to.
      * @throws NoSuchDepartmentException when the given department is not a real department
-     * @throws InvalidFileFormatException when parsing a URL fails in <code>parseCoursesFromFile(String)</code>
+     * @throws InvalidFileFormatException when parsing a URL fails
      */
     public static LinkedList<Course> downloadAndSaveDepartment(String dept) throws InvalidFileFormatException, NoSuchDepartmentException, IOException {
-        boolean isValidDepartment = false;
-        for (String s : DEPARTMENT_LIST) {
-            if (s.equals(dept)) {
-                isValidDepartment = true;
-            }
-        }
-        if (isValidDepartment) {
+        if (departments.isValid(dept)) {
             //fall 2010: http://www.sis.hawaii.edu/uhdad/avail.classes?i=MAN&t=201110&s=
-            downloadTextFromURL(CLASS_DB_URL + dept);
-            return parseCourses();
+            try {
+                return fetchPage(CLASS_DB_URL + dept);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + dept);
+            }
         } else {
             throw new NoSuchDepartmentException(dept);
         }
     }
 
-    /**
-
     /**
      * <p>Takes all department abbreviations (e.g., MATH for mathematics, ENG for english, EE for electrical
      * engineering, etc) and connects to each department's Class Availability URL.
-     * <p>Then, uses <code>downloadTextFromURL()</code> to parse course data, appending each course to a LinkedList
+     * <p>Then, fetches each page through the page cache and parses course data, appending each course to a LinkedList
      * of <code>Course</code>s.
-     * <p>Speed of execution is dependent on network speed.
+     * <p>Up to <code>DEFAULT_PARALLELISM</code> departments are downloaded at once, so speed of
+     * execution is bound by the slowest few departments rather than the sum of all of them.
+     * <p>The departments of the term are discovered again first; if the index page can't be read,
+     * the departments known so far are used.  Departments known to be empty are skipped, and the
+     * number of courses of each department loaded is recorded in the department registry.
      * @return A LinkedList of Courses for all the departments specified
      * @throws InvalidFileFormatException If parsing fails
      */
     public static LinkedList<Course> loadAllDepartments() throws InvalidFileFormatException, IOException {
+        try {
+            try {
+                departments.discover(fetchScheduler);
+            } catch (IOException e) {
+                // Keep the departments known so far
+            } catch (InvalidFileFormatException e) {
+                // Keep the departments known so far
+            }
+            return loadDepartments(departments.getLoadableDepartments(), DEFAULT_PARALLELISM,
+                    departments.recordLoads(null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading departments");
+        }
+    }
+
+    /**
+     * Downloads and parses the given departments, running at most <code>parallelism</code>
+     * downloads at the same time.  The returned list keeps the order of <code>depts</code>,
+     * no matter in which order the downloads finish.
+     * @param depts The departments to load
+     * @param parallelism The maximum number of concurrent downloads
+     * @param listener Notified as each department finishes, may be <code>null</code>
+     * @return A LinkedList of Courses for all the departments specified
+     * @throws InvalidFileFormatException If parsing any department fails
+     * @throws IOException If downloading any department fails
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public static LinkedList<Course> loadDepartments(List<String> depts, int parallelism,
+            LoadListener listener) throws InvalidFileFormatException, IOException, InterruptedException {
+        return loadDepartments(CLASS_DB_URL, depts, parallelism, listener);
+    }
+
+    /**
+     * Downloads and parses the given departments of any institution and term, like
+     * <code>loadDepartments(List, int, LoadListener)</code>
+     * @param baseURL The URL of a department page without the department at its end,
+     * see <code>departmentURL(String, String)</code>
+     * @param depts The departments to load
+     * @param parallelism The maximum number of concurrent downloads
+     * @param listener Notified as each department finishes, may be <code>null</code>
+     * @return A LinkedList of Courses for all the departments specified
+     * @throws InvalidFileFormatException If parsing any department fails
+     * @throws IOException If downloading any department fails
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public static LinkedList<Course> loadDepartments(final String baseURL, List<String> depts, int parallelism,
+            final LoadListener listener) throws InvalidFileFormatException, IOException, InterruptedException {
         LinkedList<Course> catalog = new LinkedList<Course>();
-        for (String dept : DEPARTMENT_LIST) {
-            downloadTextFromURL(CLASS_DB_URL + dept);
-            catalog.addAll(parseCourses());
+        if (depts.isEmpty()) {
+            return catalog;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, depts.size())));
+        try {
+            List<Future<LinkedList<Course>>> results = new ArrayList<Future<LinkedList<Course>>>(depts.size());
+            for (final String dept : depts) {
+                results.add(pool.submit(new Callable<LinkedList<Course>>() {
+                    public LinkedList<Course> call() throws Exception {
+                        LinkedList<Course> courses = fetchPage(baseURL + dept);
+                        if (listener != null) {
+                            listener.departmentLoaded(dept, courses);
+                        }
+                        return courses;
+                    }
+                }));
+            }
+            for (Future<LinkedList<Course>> result : results) {
+                catalog.addAll(result.get());
+            }
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            pool.shutdownNow();
         }
         return catalog;
     }
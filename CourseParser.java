@@ -0,0 +1,421 @@
+package alexchantavy;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A streaming parser for the text of a UH Class Availability page.
+ * <p>Lines of text are fed one at a time through <code>handleLine(String)</code>, in the order
+ * they appear on the page, and every <code>Course</code> is handed to the <code>CourseListener</code>
+ * as soon as its last <code>MeetingTime</code> has been read.  Only a small window of the most
+ * recent lines is kept, so the memory used by the parser does not depend on the size of the page.
+ * <p>Matching of <code>Course</code> data fields is done with regular expressions to verify
+ * correct input.  If abnormalities in the page are found, the parser throws an InvalidFileFormatException
+ * with line numbers.  There are many hardcoded segments to check for variations in table data, e.g., 'TBA'
+ * present being present instead of room number, or multiple meeting times and room numbers.
+ * <p>At the time of this implementation, this string processing works on the 2011 Spring UH Manoa
+ * Class Availability list.
+ * <p>A parser given a <code>ParseReport</code> is lenient: instead of throwing when a row is
+ * malformed, it records the error in the report, drops the row and resumes at the next CRN.
+ * @see alexchantavy.CourseDatabase#parseCourses(java.util.List)
+ * @author Alex Chantavy
+ */
+public class CourseParser implements HtmlTableTokenizer.LineHandler {
+
+    /**
+     * Receives every <code>Course</code> read by a <code>CourseParser</code>.
+     */
+    public interface CourseListener {
+        /**
+         * Called once a course and all of its meeting times have been parsed.
+         * @param c The parsed course
+         */
+        void courseParsed(Course c);
+    }
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** Regex pattern for 5 digit course numbers (CRNs) */
+    private static final Pattern CRN = Pattern.compile("\\d{5}");
+    /** Regex pattern for course declarations, e.g., ENG 100, ICS 311, EE 160, etc.*/
+    private static final Pattern COURSE = Pattern.compile("^[A-Z]{2,4} \\d{3}[A-Z]?$");
+    /** Regex pattern for 3 digit section numbers*/
+    private static final Pattern SECTION = Pattern.compile("^\\d{2,3}$");
+    /** Regex pattern for course titles.  May contain letters, hyphens, parenthesis,
+     * single quotes, ampersands and colons.  */
+    private static final Pattern TITLE = Pattern.compile("^[A-Za-z,-\\\\(\\\\)\\\\'\\\\&: ]+$");
+    /** Regex pattern for credits.  May contain decimal points and hyphens
+     * for variable amounts of credits. */
+    private static final Pattern CREDITS = Pattern.compile("^[\\d-./]+$");
+    /** Regex pattern for instructor's name.  May be hyphenated */
+    private static final Pattern INSTRUCTOR = Pattern.compile("^[\\w-' ]+$");
+    /** Regex pattern for number of seats. */
+    private static final Pattern SEATS = Pattern.compile("^\\d+$");
+    /** Regex pattern for days, which may contain combinations of "M, T, W, R, F, S" */
+    private static final Pattern DAYS = Pattern.compile("^[MTWRFS]+$");
+    /** Regex pattern for start time.  Consists of four digits followed by a hyphen.*/
+    private static final Pattern START_TIME = Pattern.compile("^\\d{4}-$");
+    /** Regex pattern for end time.  Consists of four digits followed by an 'a' or 'p' */
+    private static final Pattern END_TIME = Pattern.compile("^\\d{4}[a|p]$");
+    /** Regex pattern  for room number */
+    private static final Pattern ROOM = Pattern.compile("^[A-Z\\d/\\- ]+$");
+    /** Regex pattern for dates */
+    private static final Pattern DATES = Pattern.compile("^\\d{2}/\\d{2}-\\d{2}/\\d{2}$");
+    /** Regex pattern for department name */
+    private static final Pattern DEPARTMENT = Pattern.compile("[A-Z]{2,4}");
+
+    /** Number of lines kept in the window.  Must be a power of two larger than the
+     * one line of lookbehind plus the two lines of lookahead the parser needs. */
+    private static final int WINDOW_SIZE = 8;
+
+    /* Parser states, one for each field of the table in the order they appear on the page */
+    private static final int SEEK_CRN = 0;
+    private static final int READ_COURSE = 1;
+    private static final int READ_SECTION = 2;
+    private static final int READ_TITLE = 3;
+    private static final int READ_CREDITS = 4;
+    private static final int READ_INSTRUCTOR = 5;
+    private static final int READ_SEATS = 6;
+    private static final int READ_DAYS = 7;
+    private static final int READ_START_TIME = 8;
+    private static final int READ_END_TIME = 9;
+    private static final int READ_ROOM = 10;
+    private static final int READ_DATES = 11;
+    private static final int NEXT_MEETING = 12;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final CourseListener listener;
+    /** Collects the errors of malformed rows instead of throwing, may be <code>null</code> */
+    private final ParseReport report;
+    /** The most recent lines, indexed by line number modulo <code>WINDOW_SIZE</code> */
+    private final String[] window = new String[WINDOW_SIZE];
+    /** Number of lines received so far */
+    private int received;
+    /** Line number of the next line to be parsed */
+    private int cursor;
+    private int state = SEEK_CRN;
+    /** Set by <code>finish()</code> once no more lines will arrive */
+    private boolean finished;
+
+    /* One matcher per pattern, reset for every line instead of allocating a new one */
+    private final Matcher crnMatcher = CRN.matcher("");
+    private final Matcher courseMatcher = COURSE.matcher("");
+    private final Matcher sectionMatcher = SECTION.matcher("");
+    private final Matcher titleMatcher = TITLE.matcher("");
+    private final Matcher creditsMatcher = CREDITS.matcher("");
+    private final Matcher instructorMatcher = INSTRUCTOR.matcher("");
+    private final Matcher seatsMatcher = SEATS.matcher("");
+    private final Matcher daysMatcher = DAYS.matcher("");
+    private final Matcher startTimeMatcher = START_TIME.matcher("");
+    private final Matcher endTimeMatcher = END_TIME.matcher("");
+    private final Matcher roomMatcher = ROOM.matcher("");
+    private final Matcher datesMatcher = DATES.matcher("");
+    private final Matcher departmentMatcher = DEPARTMENT.matcher("");
+
+    /* Fields of the course currently being parsed */
+    private String focus, crn, department, course, section, title, credits, instructor;
+    private String days, startTime, endTime, room;
+    private Course current;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a parser that hands every parsed course to the given listener
+     * @param listener Receives the parsed courses
+     */
+    public CourseParser(CourseListener listener) {
+        this(listener, null);
+    }
+
+    /**
+     * Creates a parser that hands every parsed course to the given listener, and that skips
+     * malformed rows if given a report
+     * @param listener Receives the parsed courses
+     * @param report Receives the counts of parsed and skipped rows and the error of every
+     * skipped row, or <code>null</code> to throw at the first malformed row
+     */
+    public CourseParser(CourseListener listener, ParseReport report) {
+        this.listener = listener;
+        this.report = report;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Feeds the next line of text of the page to the parser.
+     * @param line The next line of text
+     * @throws InvalidFileFormatException When the page is malformed and the parser isn't lenient
+     */
+    public void handleLine(String line) throws InvalidFileFormatException {
+        window[received & (WINDOW_SIZE - 1)] = line;
+        received++;
+        while (step()) {
+            // keep parsing until more lines are needed
+        }
+    }
+
+    /**
+     * Tells the parser that the page has ended, flushing the last course if it is complete.
+     * @throws InvalidFileFormatException When the page ends in the middle of a course and the
+     * parser isn't lenient
+     */
+    public void finish() throws InvalidFileFormatException {
+        finished = true;
+        while (step()) {
+            // parse whatever is left in the window
+        }
+        if (state != SEEK_CRN && report != null) {
+            report.rowSkipped(new InvalidFileFormatException("End of page",
+                    received == 0 ? "" : line(received - 1), "", received));
+            current = null;
+            state = SEEK_CRN;
+        } else if (state != SEEK_CRN) {
+            throw new InvalidFileFormatException("Unexpected end of page while parsing "
+                    + (course == null ? crn : course) + " at line " + received);
+        }
+    }
+
+    /**
+     * Returns the line at the given line number, which must still be in the window
+     * @param lineNum The (zero based) line number
+     * @return The line of text
+     */
+    private String line(int lineNum) {
+        return window[lineNum & (WINDOW_SIZE - 1)];
+    }
+
+    /**
+     * Returns whether the line <code>ahead</code> lines after the cursor has been received.
+     * @param ahead How many lines after the cursor
+     * @return Whether the line is available
+     */
+    private boolean available(int ahead) {
+        return cursor + ahead < received;
+    }
+
+    /**
+     * Creates the exception thrown when the line at the cursor does not match the given field
+     * @param field The field that was expected
+     * @return The exception to be thrown
+     */
+    private InvalidFileFormatException failure(String field) {
+        String prevLine = cursor == 0 ? "" : line(cursor - 1);
+        return new InvalidFileFormatException(field, prevLine, line(cursor), cursor + 1);
+    }
+
+    /**
+     * Parses the line at the cursor according to the current state.  When the line doesn't
+     * match and the parser is lenient, the row is dropped and the same line is looked at again
+     * as a possible CRN, which resynchronizes the parser with the next row.
+     * @return <code>true</code> if the parser made progress, <code>false</code> if it needs more lines
+     * @throws InvalidFileFormatException When the line does not match the expected field and
+     * the parser isn't lenient
+     */
+    private boolean step() throws InvalidFileFormatException {
+        try {
+            return advance();
+        } catch (InvalidFileFormatException e) {
+            if (report == null) {
+                throw e;
+            }
+            report.rowSkipped(e);
+            current = null;
+            state = SEEK_CRN;
+            return true;
+        }
+    }
+
+    /**
+     * Parses the line at the cursor according to the current state, throwing on any mismatch
+     * @return <code>true</code> if the parser made progress, <code>false</code> if it needs more lines
+     * @throws InvalidFileFormatException When the line does not match the expected field
+     */
+    private boolean advance() throws InvalidFileFormatException {
+        if (!available(0)) {
+            if (finished && state == NEXT_MEETING) {
+                endCourse();
+                return true;
+            }
+            return false;
+        }
+        String currentLine = line(cursor);
+        switch (state) {
+            case SEEK_CRN:
+                // Most lines are rejected by their length without running the regex
+                if (currentLine.length() == 5 && crnMatcher.reset(currentLine).matches()) {
+                    String prevLine = cursor == 0 ? currentLine : line(cursor - 1);
+                    crn = currentLine;
+                    if (Requirement.parseMask(prevLine) != 0) {
+                        focus = prevLine;
+                    } else {
+                        focus = "none";
+                    }
+                    course = null;
+                    state = READ_COURSE;
+                }
+                break;
+
+            case READ_COURSE:
+                if (!courseMatcher.reset(currentLine).matches()) {
+                    throw failure("Course");
+                }
+                course = currentLine;
+                Matcher match = departmentMatcher.reset(currentLine);
+                if (match.find()) {
+                    department = match.group();
+                } else {
+                    department = "";
+                }
+                state = READ_SECTION;
+                break;
+
+            case READ_SECTION:
+                if (!sectionMatcher.reset(currentLine).matches()) {
+                    throw failure("Section");
+                }
+                section = currentLine;
+                state = READ_TITLE;
+                break;
+
+            case READ_TITLE:
+                if (!titleMatcher.reset(currentLine).matches()) {
+                    throw failure("Title");
+                }
+                title = currentLine;
+                state = READ_CREDITS;
+                break;
+
+            case READ_CREDITS:
+                // Credits may be preceded by up to two extra lines, e.g. a title that wraps
+                if (!creditsMatcher.reset(currentLine).matches()) {
+                    if (!available(1) && !finished) {
+                        return false;
+                    }
+                    if (available(1) && creditsMatcher.reset(line(cursor + 1)).matches()) {
+                        cursor += 1;
+                    } else {
+                        if (!available(2) && !finished) {
+                            return false;
+                        }
+                        if (available(2) && creditsMatcher.reset(line(cursor + 2)).matches()) {
+                            cursor += 2;
+                        } else {
+                            throw failure("Credits");
+                        }
+                    }
+                }
+                credits = line(cursor);
+                state = READ_INSTRUCTOR;
+                break;
+
+            case READ_INSTRUCTOR:
+                if (!instructorMatcher.reset(currentLine).matches()
+                        && !currentLine.equals("TBA")) {
+                    throw failure("Instructor");
+                }
+                instructor = currentLine;
+                state = READ_SEATS;
+                break;
+
+            case READ_SEATS:
+                if (!seatsMatcher.reset(currentLine).matches()) {
+                    throw failure("Seats");
+                }
+                current = new Course(department, focus, crn, course, section,
+                        title, instructor, currentLine, credits);
+                state = READ_DAYS;
+                break;
+
+            case READ_DAYS:
+                if (!daysMatcher.reset(currentLine).matches()
+                        && !currentLine.equals("TBA")) {
+                    throw failure("Days");
+                }
+                days = currentLine;
+                // the column following the days is not used
+                cursor++;
+                state = READ_START_TIME;
+                break;
+
+            case READ_START_TIME:
+                if (!startTimeMatcher.reset(currentLine).matches()
+                        && !currentLine.equals("TBA")) {
+                    throw failure("Start time");
+                }
+                startTime = currentLine;
+                state = READ_END_TIME;
+                break;
+
+            case READ_END_TIME:
+                state = READ_ROOM;
+                if (endTimeMatcher.reset(currentLine).matches()) {
+                    endTime = currentLine;
+                } else if (startTime.equals("TBA")) {
+                    endTime = "TBA"; //this accounts for endTime being blank because start time was TBA.
+                    return true; // the current line is the room, so don't advance
+                } else {
+                    throw failure("End time");
+                }
+                break;
+
+            case READ_ROOM:
+                if (!roomMatcher.reset(currentLine).matches()
+                        && !currentLine.contains("TBA")) {
+                    throw failure("Room");
+                }
+                room = currentLine;
+                state = READ_DATES;
+                break;
+
+            case READ_DATES:
+                if (!datesMatcher.reset(currentLine).matches()
+                        && !currentLine.contains("TBA")) {
+                    throw failure("Dates");
+                }
+                current.addMeetingTime(new MeetingTime(days, startTime, endTime, room, currentLine));
+                state = NEXT_MEETING;
+                break;
+
+            case NEXT_MEETING:
+                // Another meeting time follows if the next lines are days and a start time.
+                // Account for special case where "FW" or "FS" focus of the next course might be the next line
+                if (daysMatcher.reset(currentLine).matches()
+                        && !currentLine.equals("FW")
+                        && !currentLine.equals("FS")) {
+                    if (!available(1)) {
+                        if (!finished) {
+                            return false;
+                        }
+                    } else if (startTimeMatcher.reset(line(cursor + 1)).matches()) {
+                        state = READ_DAYS;
+                        return true;
+                    }
+                }
+                endCourse();
+                return true;
+
+            default:
+                throw new IllegalStateException("Unknown parser state " + state);
+        }
+        cursor++;
+        return true;
+    }
+
+    /**
+     * Hands the course that was just completed to the listener and starts looking for the next one.
+     */
+    private void endCourse() {
+        Course c = current;
+        current = null;
+        state = SEEK_CRN;
+        if (report != null) {
+            report.rowParsed();
+        }
+        listener.courseParsed(c);
+    }
+}
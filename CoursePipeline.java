@@ -0,0 +1,199 @@
+package alexchantavy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads departments and filters their courses against a query as a pipeline, so that the
+ * matches of each department are available as soon as that department is parsed instead of
+ * after the whole catalog is loaded.
+ * <p>Up to <code>parallelism</code> departments are downloaded and parsed at the same time by
+ * the fetch stage; parsing one department overlaps with downloading the others.  Pages go
+ * through the page cache and are shared with concurrent loads, and their cached courses are
+ * filtered against the query.  The matches go through a bounded queue to the report stage, which
+ * runs on the calling thread and hands them to a <code>ResultListener</code>.  When the report
+ * stage falls behind, the queue fills up and the fetch stage waits instead of piling up parsed
+ * pages in memory.
+ * @see alexchantavy.CourseQuery
+ * @author Alex Chantavy
+ */
+public class CoursePipeline {
+
+    /**
+     * The courses of one department that match the query
+     */
+    public static class DepartmentResult {
+        private final String department;
+        private final LinkedList<Course> matches;
+
+        DepartmentResult(String department, LinkedList<Course> matches) {
+            this.department = department;
+            this.matches = matches;
+        }
+
+        /**
+         * Returns the department
+         * @return The department abbreviation
+         */
+        public String getDepartment() {
+            return department;
+        }
+
+        /**
+         * Returns the courses of the department that match the query
+         * @return The matching courses, in page order
+         */
+        public LinkedList<Course> getMatches() {
+            return matches;
+        }
+    }
+
+    /**
+     * Receives the matches of each department as soon as they are filtered.  Called on the
+     * thread running the pipeline, in the order the departments finish loading.
+     */
+    public interface ResultListener {
+        /**
+         * Called once for every department
+         * @param result The department and its matching courses, possibly none
+         */
+        void departmentFiltered(DepartmentResult result);
+    }
+
+    /**
+     * A department handed from the fetch stage to the report stage
+     */
+    private static class Parsed {
+        final int index;
+        final String department;
+        final LinkedList<Course> courses;
+        final Exception failure;
+
+        Parsed(int index, String department, LinkedList<Course> courses, Exception failure) {
+            this.index = index;
+            this.department = department;
+            this.courses = courses;
+            this.failure = failure;
+        }
+    }
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** Number of parsed departments that may wait for the report stage */
+    public static final int QUEUE_CAPACITY = 8;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final CourseQuery query;
+    private final int parallelism;
+    private final String baseURL;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a pipeline loading departments from the Class Availability website
+     * @param query The query the courses are filtered with
+     * @param parallelism The maximum number of departments fetched at the same time
+     */
+    public CoursePipeline(CourseQuery query, int parallelism) {
+        this(query, parallelism, CourseDatabase.CLASS_DB_URL);
+    }
+
+    /**
+     * Creates a pipeline
+     * @param query The query the courses are filtered with
+     * @param parallelism The maximum number of departments fetched at the same time
+     * @param baseURL The URL of a department page without the department at its end
+     */
+    public CoursePipeline(CourseQuery query, int parallelism, String baseURL) {
+        this.query = query;
+        this.parallelism = parallelism;
+        this.baseURL = baseURL;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Loads and filters the given departments, reporting the matches of each department as
+     * soon as it is filtered
+     * @param depts The departments to load
+     * @param listener Receives the matches of each department, may be <code>null</code>
+     * @return Every match, in the order of <code>depts</code>
+     * @throws InvalidFileFormatException If parsing any department fails
+     * @throws IOException If downloading any department fails
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public LinkedList<Course> run(List<String> depts, ResultListener listener)
+            throws InvalidFileFormatException, IOException, InterruptedException {
+        LinkedList<Course> all = new LinkedList<Course>();
+        if (depts.isEmpty()) {
+            return all;
+        }
+        final BlockingQueue<Parsed> parsed = new ArrayBlockingQueue<Parsed>(QUEUE_CAPACITY);
+        ExecutorService fetchers = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, depts.size())));
+        List<LinkedList<Course>> matches = new ArrayList<LinkedList<Course>>(depts.size());
+        try {
+            for (int i = 0; i < depts.size(); i++) {
+                final int index = i;
+                final String dept = depts.get(i);
+                matches.add(null);
+                fetchers.execute(new Runnable() {
+                    public void run() {
+                        Parsed result;
+                        try {
+                            result = new Parsed(index, dept, CourseDatabase.fetchPage(baseURL + dept, query), null);
+                        } catch (Exception e) {
+                            result = new Parsed(index, dept, null, e);
+                        }
+                        try {
+                            parsed.put(result);
+                        } catch (InterruptedException e) {
+                            // The pipeline was stopped
+                        }
+                    }
+                });
+            }
+            for (int remaining = depts.size(); remaining > 0; remaining--) {
+                Parsed next = parsed.take();
+                if (next.failure != null) {
+                    rethrow(next.failure);
+                }
+                DepartmentResult result = new DepartmentResult(next.department, next.courses);
+                matches.set(next.index, result.getMatches());
+                if (listener != null) {
+                    listener.departmentFiltered(result);
+                }
+            }
+        } finally {
+            fetchers.shutdownNow();
+        }
+        for (LinkedList<Course> m : matches) {
+            all.addAll(m);
+        }
+        return all;
+    }
+
+    private static void rethrow(Exception failure)
+            throws InvalidFileFormatException, IOException, InterruptedException {
+        if (failure instanceof InvalidFileFormatException) {
+            throw (InvalidFileFormatException) failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new IOException(failure);
+    }
+}
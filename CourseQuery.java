@@ -0,0 +1,639 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A query compiled from a <code>SearchCriteria</code>.
+ * <p>Every restriction of the criteria becomes a <code>Predicate</code>, and the predicates are
+ * combined into a tree of <code>And</code> nodes.  When the query is run against a
+ * <code>CourseCatalog</code>, the department, requirement, course abbreviation and text predicates
+ * are answered by the catalog's indexes, and a time window narrows the candidates through the catalog's
+ * <code>MeetingTimeIndex</code>.  The remaining predicates are then evaluated on the candidate
+ * courses only, cheapest and most selective first, so that most courses are rejected by the
+ * first test.
+ * <p>The department, requirements and open seats restrictions can also be checked on the
+ * columns of a <code>ColumnarCatalog</code>, before a course is built.
+ * @see alexchantavy.SearchCriteria
+ * @see alexchantavy.CourseCatalog
+ * @author Alex Chantavy
+ */
+public class CourseQuery {
+
+    /**
+     * A condition on a single course; a node of the predicate tree.
+     */
+    public static abstract class Predicate {
+        /**
+         * Returns whether the given course satisfies this predicate
+         * @param c The course
+         * @return Whether the course matches
+         */
+        public abstract boolean matches(Course c);
+
+        /**
+         * Returns the estimated cost of evaluating the predicate, relative to a field comparison
+         * @return The estimated cost
+         */
+        protected abstract double cost();
+
+        /**
+         * Returns the estimated fraction of courses that satisfy the predicate
+         * @return A number between 0 and 1
+         */
+        protected abstract double selectivity();
+
+        /**
+         * Predicates with a lower rank are evaluated first.  Ordering by cost divided by the
+         * fraction of courses rejected minimizes the expected cost of a conjunction.
+         * @return The rank of the predicate
+         */
+        double rank() {
+            return cost() / Math.max(1e-6, 1 - selectivity());
+        }
+    }
+
+    /** Orders predicates by rank */
+    private static final Comparator<Predicate> BY_RANK = new Comparator<Predicate>() {
+        public int compare(Predicate a, Predicate b) {
+            return Double.compare(a.rank(), b.rank());
+        }
+    };
+
+    /**
+     * A conjunction of predicates, evaluated in order of rank.
+     */
+    public static class And extends Predicate {
+        private final Predicate[] children;
+
+        public And(List<Predicate> children) {
+            List<Predicate> sorted = new ArrayList<Predicate>(children);
+            Collections.sort(sorted, BY_RANK);
+            this.children = sorted.toArray(new Predicate[sorted.size()]);
+        }
+
+        @Override
+        public boolean matches(Course c) {
+            for (Predicate p : children) {
+                if (!p.matches(c)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected double cost() {
+            // Each child is only evaluated if all the previous ones passed
+            double cost = 0, reached = 1;
+            for (Predicate p : children) {
+                cost += reached * p.cost();
+                reached *= p.selectivity();
+            }
+            return cost;
+        }
+
+        @Override
+        protected double selectivity() {
+            double selectivity = 1;
+            for (Predicate p : children) {
+                selectivity *= p.selectivity();
+            }
+            return selectivity;
+        }
+
+        /**
+         * Returns whether this conjunction has no children, i.e. matches every course
+         * @return Whether there are no children
+         */
+        public boolean isEmpty() {
+            return children.length == 0;
+        }
+    }
+
+    /** The course belongs to a department */
+    static class DepartmentIs extends Predicate {
+        private final String dept;
+
+        DepartmentIs(String dept) {
+            this.dept = dept;
+        }
+
+        @Override
+        public boolean matches(Course c) {
+            return dept.equals(c.getDepartment());
+        }
+
+        @Override
+        protected double cost() {
+            return 2;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.01;
+        }
+    }
+
+    /** The course fulfills every requirement of a mask */
+    static class Fulfills extends Predicate {
+        private final int mask;
+
+        Fulfills(int mask) {
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean matches(Course c) {
+            return c.fulfills(mask);
+        }
+
+        @Override
+        protected double cost() {
+            return 1;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.05;
+        }
+    }
+
+    /** The course has open seats */
+    static class HasOpenSeats extends Predicate {
+        @Override
+        public boolean matches(Course c) {
+            return c.hasOpenSeats();
+        }
+
+        @Override
+        protected double cost() {
+            return 1;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.6;
+        }
+    }
+
+    /** The course is held online */
+    static class IsOnline extends Predicate {
+        @Override
+        public boolean matches(Course c) {
+            return Course.isOnline(c);
+        }
+
+        @Override
+        protected double cost() {
+            return 1;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.05;
+        }
+    }
+
+    /** The course may be taken for a number of credits within a range */
+    static class CreditsWithin extends Predicate {
+        private final float min, max;
+
+        CreditsWithin(float min, float max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean matches(Course c) {
+            return c.getMaxCredits() >= min && c.getMinCredits() <= max;
+        }
+
+        @Override
+        protected double cost() {
+            return 1;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.5;
+        }
+    }
+
+    /** The course only meets on the given days */
+    static class MeetsOnlyOn extends Predicate {
+        private final int dayMask;
+
+        MeetsOnlyOn(int dayMask) {
+            this.dayMask = dayMask;
+        }
+
+        @Override
+        public boolean matches(Course c) {
+            return c.getDayMask() != 0 && (c.getDayMask() & ~dayMask) == 0;
+        }
+
+        @Override
+        protected double cost() {
+            return 1;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.4;
+        }
+    }
+
+    /** Every scheduled meeting of the course is within a time window */
+    static class WithinTimeWindow extends Predicate {
+        private final int earliestStart, latestEnd;
+
+        WithinTimeWindow(int earliestStart, int latestEnd) {
+            this.earliestStart = earliestStart;
+            this.latestEnd = latestEnd;
+        }
+
+        @Override
+        public boolean matches(Course c) {
+            boolean scheduled = false;
+            for (MeetingTime m : c.getMeetingTimes()) {
+                if (m.isTBA()) {
+                    continue;
+                }
+                if ((earliestStart != MeetingTime.TBA && m.getStartMinutes() < earliestStart)
+                        || (latestEnd != MeetingTime.TBA && m.getEndMinutes() > latestEnd)) {
+                    return false;
+                }
+                scheduled = true;
+            }
+            return scheduled;
+        }
+
+        @Override
+        protected double cost() {
+            return 4;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.4;
+        }
+    }
+
+    /** The course abbreviation starts with some text, ignoring case and spaces */
+    static class AbbreviationStartsWith extends Predicate {
+        private final String prefix;
+
+        AbbreviationStartsWith(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean matches(Course c) {
+            String abbreviation = c.getCourseAbbrev();
+            int i = 0;
+            for (int p = 0; p < prefix.length(); p++) {
+                char expected = prefix.charAt(p);
+                if (expected == ' ') {
+                    continue;
+                }
+                while (i < abbreviation.length() && abbreviation.charAt(i) == ' ') {
+                    i++;
+                }
+                if (i == abbreviation.length()
+                        || Character.toUpperCase(abbreviation.charAt(i)) != Character.toUpperCase(expected)) {
+                    return false;
+                }
+                i++;
+            }
+            return true;
+        }
+
+        @Override
+        protected double cost() {
+            return 3;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.005;
+        }
+    }
+
+    /**
+     * Every word of a text matches a word of a field of the course, the way a
+     * <code>TextIndex</code> matches it: ignoring case, as a prefix or with a few typos
+     */
+    static abstract class TextMatches extends Predicate {
+        private final String text;
+
+        TextMatches(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Returns the field to be searched
+         * @param c The course
+         * @return The field
+         */
+        abstract String field(Course c);
+
+        @Override
+        public boolean matches(Course c) {
+            return TextIndex.matches(field(c), text);
+        }
+
+        @Override
+        protected double cost() {
+            return 30;
+        }
+
+        @Override
+        protected double selectivity() {
+            return 0.02;
+        }
+    }
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    /** Department answered by the catalog's index, or <code>null</code> for any */
+    private final String department;
+    /** Requirements answered by the catalog's index */
+    private final int requirementMask;
+    /** Start of the course abbreviation answered by the catalog's trie, or <code>null</code> for any */
+    private final String coursePrefix;
+    /** Text of the title, the instructor, and either, answered by the catalog's text index,
+     * or <code>null</code> for any */
+    private String title, instructor, keywords;
+    /** Days and time window used to narrow candidates with the meeting time index.
+     * The window is only set when the query has a time restriction. */
+    private int dayMask = MeetingTimeIndex.ALL_DAYS;
+    private int windowStart = MeetingTime.TBA, windowEnd = MeetingTime.TBA;
+    /** Whether courses without open seats are rejected */
+    private boolean openSeatsRequired;
+    /** Whether the department, requirements and open seats are the only restrictions */
+    private boolean decidedByRow;
+    /** Everything else, evaluated course by course */
+    private final And residual;
+    /** The whole predicate tree, used when there is no catalog */
+    private final And tree;
+
+    private CourseQuery(String department, int requirementMask, String coursePrefix,
+            List<Predicate> residual, List<Predicate> text) {
+        this.department = department;
+        this.requirementMask = requirementMask;
+        this.coursePrefix = coursePrefix;
+        this.residual = new And(residual);
+        List<Predicate> all = new ArrayList<Predicate>(residual);
+        all.addAll(text);
+        if (department != null) {
+            all.add(new DepartmentIs(department));
+        }
+        if (requirementMask != 0) {
+            all.add(new Fulfills(requirementMask));
+        }
+        if (coursePrefix != null) {
+            all.add(new AbbreviationStartsWith(coursePrefix));
+        }
+        this.tree = new And(all);
+    }
+
+    /**
+     * Compiles the given criteria into a query
+     * @param criteria The search criteria
+     * @return The compiled query
+     */
+    public static CourseQuery compile(SearchCriteria criteria) {
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        if (criteria.openSeatsRequired()) {
+            predicates.add(new HasOpenSeats());
+        }
+        if (criteria.onlineCoursesRequired()) {
+            predicates.add(new IsOnline());
+        }
+        if (criteria.hasCreditRange()) {
+            predicates.add(new CreditsWithin(criteria.getMinCredits(), criteria.getMaxCredits()));
+        }
+        if (criteria.getDayMask() != 0) {
+            predicates.add(new MeetsOnlyOn(criteria.getDayMask()));
+        }
+        if (criteria.getEarliestStart() != MeetingTime.TBA || criteria.getLatestEnd() != MeetingTime.TBA) {
+            predicates.add(new WithinTimeWindow(criteria.getEarliestStart(), criteria.getLatestEnd()));
+        }
+        String dept = criteria.getDepartment();
+        if (dept == null || dept.equals("Any")) {
+            dept = null;
+        }
+        String prefix = criteria.getCoursePrefix();
+        if (prefix != null && prefix.trim().length() == 0) {
+            prefix = null;
+        }
+        List<Predicate> text = new ArrayList<Predicate>();
+        String title = wordsOf(criteria.getTitle());
+        if (title != null) {
+            text.add(new TextMatches(title) {
+                String field(Course c) {
+                    return c.getTitle();
+                }
+            });
+        }
+        String instructor = wordsOf(criteria.getInstructor());
+        if (instructor != null) {
+            text.add(new TextMatches(instructor) {
+                String field(Course c) {
+                    return c.getInstructor();
+                }
+            });
+        }
+        String keywords = wordsOf(criteria.getKeywords());
+        if (keywords != null) {
+            text.add(new TextMatches(keywords) {
+                String field(Course c) {
+                    return c.getTitle() + " " + c.getInstructor();
+                }
+            });
+        }
+        CourseQuery query = new CourseQuery(dept, criteria.getRequirementMask(), prefix, predicates, text);
+        query.openSeatsRequired = criteria.openSeatsRequired();
+        query.title = title;
+        query.instructor = instructor;
+        query.keywords = keywords;
+        query.decidedByRow = prefix == null && text.isEmpty()
+                && predicates.size() == (criteria.openSeatsRequired() ? 1 : 0);
+        if (criteria.getEarliestStart() != MeetingTime.TBA || criteria.getLatestEnd() != MeetingTime.TBA) {
+            // A matching course has at least one scheduled meeting on the allowed days within the window
+            query.dayMask = criteria.getDayMask() != 0 ? criteria.getDayMask() : MeetingTimeIndex.ALL_DAYS;
+            query.windowStart = criteria.getEarliestStart() != MeetingTime.TBA ? criteria.getEarliestStart() : 0;
+            query.windowEnd = criteria.getLatestEnd() != MeetingTime.TBA ? criteria.getLatestEnd() : MeetingTimeIndex.END_OF_DAY;
+        }
+        return query;
+    }
+
+    /**
+     * Returns a text restriction if it has any words to match
+     * @param text The text of the criteria, may be <code>null</code>
+     * @return The text, or <code>null</code> if it has no words
+     */
+    private static String wordsOf(String text) {
+        return TextIndex.tokenize(text).isEmpty() ? null : text;
+    }
+
+    /**
+     * Returns whether the given course satisfies the whole query
+     * @param c The course
+     * @return Whether the course matches
+     */
+    public boolean matches(Course c) {
+        return tree.matches(c);
+    }
+
+    /**
+     * Returns whether a course fulfilling the given requirements may satisfy the query
+     * @param requirements The requirements of the course, as a mask of Requirement bits
+     * @return <code>false</code> if the course cannot match
+     */
+    public boolean acceptsRequirements(int requirements) {
+        return (requirements & requirementMask) == requirementMask;
+    }
+
+    /**
+     * Returns whether a course of the given department may satisfy the query
+     * @param dept The department of the course
+     * @return <code>false</code> if the course cannot match
+     */
+    public boolean acceptsDepartment(String dept) {
+        return department == null || department.equals(dept);
+    }
+
+    /**
+     * Returns whether a course with the given number of available seats may satisfy the query
+     * @param seats The number of available seats
+     * @return <code>false</code> if the course cannot match
+     */
+    public boolean acceptsSeats(int seats) {
+        return !openSeatsRequired || seats > 0;
+    }
+
+    /**
+     * Returns whether the query only restricts the department, requirements and open seats, so
+     * that a course accepted by <code>acceptsDepartment</code>, <code>acceptsRequirements</code>
+     * and <code>acceptsSeats</code> matches without calling <code>matches(Course)</code>
+     * @return Whether those three checks decide the query
+     */
+    public boolean isDecidedByRow() {
+        return decidedByRow;
+    }
+
+    /**
+     * Returns the keywords the matching courses are ranked by
+     * @return The normalized keywords, or <code>null</code> if the query has none
+     */
+    public String getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * Returns whether the query restricts the title, the instructor or the keywords
+     * @return Whether <code>textRows</code> restricts anything
+     */
+    public boolean hasTextRestriction() {
+        return title != null || instructor != null || keywords != null;
+    }
+
+    /**
+     * Returns the rows of a text index that satisfy the title, instructor and keywords of the query
+     * @param index The text index of a catalog
+     * @return A new BitSet of the rows; every row if the query has no text restriction
+     */
+    public BitSet textRows(TextIndex index) {
+        BitSet rows = new BitSet(index.size());
+        rows.set(0, index.size());
+        if (title != null) {
+            rows.and(index.matching(TextIndex.Field.TITLE, title));
+        }
+        if (instructor != null) {
+            rows.and(index.matching(TextIndex.Field.INSTRUCTOR, instructor));
+        }
+        if (keywords != null) {
+            rows.and(index.matchingAny(keywords));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the courses of the given list that satisfy the query, without using any index
+     * @param courses The courses to filter
+     * @return The matching courses, in their original order
+     */
+    public LinkedList<Course> filter(List<Course> courses) {
+        LinkedList<Course> result = new LinkedList<Course>();
+        for (Course c : courses) {
+            if (tree.matches(c)) {
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rows of the catalog that satisfy the query.
+     * @param catalog The catalog to search
+     * @return A new BitSet of the matching rows
+     */
+    public BitSet matchingRows(CourseCatalog catalog) {
+        BitSet candidates;
+        if (department != null) {
+            candidates = catalog.departmentRows(department);
+            if (requirementMask != 0) {
+                candidates.and(catalog.getRequirementIndex().matching(requirementMask));
+            }
+        } else {
+            candidates = catalog.getRequirementIndex().matching(requirementMask);
+        }
+        if (coursePrefix != null) {
+            candidates.and(catalog.abbreviationRows(coursePrefix));
+        }
+        if (hasTextRestriction()) {
+            candidates.and(textRows(catalog.getTextIndex()));
+        }
+        if (windowStart != MeetingTime.TBA) {
+            candidates.and(catalog.getMeetingTimeIndex().fitsWithin(dayMask, windowStart, windowEnd));
+        }
+        if (!residual.isEmpty()) {
+            for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1)) {
+                if (!residual.matches(catalog.get(row))) {
+                    candidates.clear(row);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Runs the query against the given catalog
+     * @param catalog The catalog to search
+     * @return The matching courses, most relevant to the keywords first if the query has
+     * keywords, in catalog order otherwise
+     */
+    public List<Course> run(CourseCatalog catalog) {
+        BitSet rows = matchingRows(catalog);
+        if (keywords != null) {
+            int[] ranked = catalog.getTextIndex().rank(keywords, rows);
+            List<Course> result = new ArrayList<Course>(ranked.length);
+            for (int row : ranked) {
+                result.add(catalog.get(row));
+            }
+            return result;
+        }
+        List<Course> result = new ArrayList<Course>(rows.cardinality());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            result.add(catalog.get(row));
+        }
+        return result;
+    }
+}
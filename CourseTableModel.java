@@ -0,0 +1,158 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Shows search results as the rows of a JTable, one course per row.
+ * <p>Only the courses themselves are kept; the text of a cell is made when the table asks for
+ * it, which it only does for the rows that are visible.  New matches are appended with
+ * <code>addCourses(List)</code> as they arrive, which only tells the table about the appended
+ * rows, so a row sorter inserts them into the current order instead of sorting every row again.
+ * <p>Like every Swing model, it must only be used on the event dispatch thread.
+ * @see alexchantavy.Course
+ * @author Alex Chantavy
+ */
+@SuppressWarnings("serial")
+public class CourseTableModel extends AbstractTableModel {
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    public static final int CRN = 0;
+    public static final int COURSE = 1;
+    public static final int SECTION = 2;
+    public static final int TITLE = 3;
+    public static final int CREDITS = 4;
+    public static final int INSTRUCTOR = 5;
+    public static final int SEATS = 6;
+    public static final int DAYS = 7;
+    public static final int TIME = 8;
+    public static final int LOCATION = 9;
+    public static final int FOCUS = 10;
+
+    private static final String[] COLUMN_NAMES = {
+        "CRN", "Course", "Section", "Title", "Credits", "Instructor",
+        "Seats", "Days", "Time", "Location", "Gen. Ed./Focus"
+    };
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final ArrayList<Course> courses = new ArrayList<Course>();
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Appends courses at the end of the table
+     * @param added The courses to append
+     */
+    public void addCourses(List<Course> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        int first = courses.size();
+        courses.addAll(added);
+        fireTableRowsInserted(first, courses.size() - 1);
+    }
+
+    /**
+     * Removes every course from the table
+     */
+    public void clear() {
+        if (courses.isEmpty()) {
+            return;
+        }
+        int last = courses.size() - 1;
+        courses.clear();
+        fireTableRowsDeleted(0, last);
+    }
+
+    /**
+     * Returns the course shown in the given row of the model
+     * @param row The row in model coordinates, see <code>JTable.convertRowIndexToModel(int)</code>
+     * @return The course of the row
+     */
+    public Course getCourseAt(int row) {
+        return courses.get(row);
+    }
+
+    public int getRowCount() {
+        return courses.size();
+    }
+
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        // Numbers sort by value rather than as text
+        return column == CRN || column == SEATS ? Integer.class : String.class;
+    }
+
+    public Object getValueAt(int row, int column) {
+        Course c = courses.get(row);
+        switch (column) {
+            case CRN:
+                return c.getCrn();
+            case COURSE:
+                return c.getCourseAbbrev();
+            case SECTION:
+                return c.getSection();
+            case TITLE:
+                return c.getTitle();
+            case CREDITS:
+                return c.getCredits();
+            case INSTRUCTOR:
+                return c.getInstructor();
+            case SEATS:
+                return c.getSeats();
+            case DAYS:
+            case TIME:
+            case LOCATION:
+                return meetingColumn(c, column);
+            case FOCUS:
+                return c.getFocus();
+            default:
+                throw new IndexOutOfBoundsException("No column " + column);
+        }
+    }
+
+    /**
+     * Returns the days, times or locations of every meeting time of a course
+     * @param c The course
+     * @param column DAYS, TIME or LOCATION
+     * @return The value of each meeting time, separated by commas
+     */
+    private static String meetingColumn(Course c, int column) {
+        List<MeetingTime> meetings = c.getMeetingTimes();
+        if (meetings.size() == 1) {
+            return meetingValue(meetings.get(0), column);
+        }
+        StringBuilder s = new StringBuilder();
+        for (MeetingTime m : meetings) {
+            if (s.length() > 0) {
+                s.append(", ");
+            }
+            s.append(meetingValue(m, column));
+        }
+        return s.toString();
+    }
+
+    private static String meetingValue(MeetingTime m, int column) {
+        if (column == DAYS) {
+            return m.getDays();
+        } else if (column == TIME) {
+            return m.getStartTime() + m.getEndTime();
+        }
+        return m.getLocation();
+    }
+}
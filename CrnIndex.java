@@ -0,0 +1,125 @@
+package alexchantavy;
+
+import java.util.Arrays;
+
+/**
+ * A hash index from CRN to the row of its course.
+ * <p>CRNs and rows are kept in two int arrays with open addressing and linear probing, so a
+ * lookup hashes the CRN and reads a slot or two, without boxing an <code>Integer</code> or
+ * following a chain of entries.  Rows are added one at a time, in the order the courses are
+ * added to the catalog, and the arrays are doubled whenever they are half full.
+ * <p>If a CRN appears twice, e.g. in the pages of two departments, its first row is kept.
+ * @see alexchantavy.CourseCatalog#rowOfCrn(int)
+ * @author Alex Chantavy
+ */
+public class CrnIndex {
+
+    /** Marks a free slot of <code>rows</code> */
+    private static final int FREE = -1;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private int[] crns;
+    /** The row of the CRN in the same slot of <code>crns</code>, or <code>FREE</code> */
+    private int[] rows;
+    /** <code>crns.length - 1</code>, the length being a power of two */
+    private int mask;
+    private int size;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates an empty index
+     * @param expected The number of CRNs expected, to size the arrays
+     */
+    public CrnIndex(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        crns = new int[capacity];
+        rows = new int[capacity];
+        Arrays.fill(rows, FREE);
+        mask = capacity - 1;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Adds the row of a CRN, unless the CRN already has one
+     * @param crn The CRN
+     * @param row The row of its course
+     * @return Whether the row was added
+     */
+    public boolean put(int crn, int row) {
+        if ((size + 1) * 2 > crns.length) {
+            int[] oldCrns = crns, oldRows = rows;
+            allocate(crns.length * 2);
+            for (int i = 0; i < oldRows.length; i++) {
+                if (oldRows[i] != FREE) {
+                    insert(oldCrns[i], oldRows[i]);
+                }
+            }
+        }
+        if (insert(crn, row)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean insert(int crn, int row) {
+        int slot = slot(crn);
+        while (rows[slot] != FREE) {
+            if (crns[slot] == crn) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        crns[slot] = crn;
+        rows[slot] = row;
+        return true;
+    }
+
+    /**
+     * Returns the row of a CRN
+     * @param crn The CRN
+     * @return The row, or -1 if no course has the CRN
+     */
+    public int get(int crn) {
+        int slot = slot(crn);
+        while (rows[slot] != FREE) {
+            if (crns[slot] == crn) {
+                return rows[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first slot to probe for a CRN.  CRNs are mostly consecutive, so they are
+     * spread by a multiplicative hash.
+     * @param crn The CRN
+     * @return The slot
+     */
+    private int slot(int crn) {
+        int h = crn * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Returns the number of CRNs in the index
+     * @return The number of distinct CRNs
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,313 @@
+package alexchantavy;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The department codes of one institution in one term, e.g. Manoa in Fall 2011.
+ * <p>A registry starts out with <code>CourseDatabase.DEPARTMENT_LIST</code> and is brought up to
+ * date by <code>discover()</code>, which reads the codes linked from the term's index page of the
+ * Class Availability website.  Codes are kept in a hash set, so checking one costs the same no
+ * matter how many departments there are.
+ * <p>The registry also remembers which departments had no courses the last time they were
+ * loaded.  Those are left out of <code>getLoadableDepartments()</code> until
+ * <code>emptyRecheckMillis</code> have passed, then loaded again once in case courses were added.
+ * Loads report their counts through the listener returned by <code>recordLoads()</code>.
+ * <p>The codes and empty departments are saved with the catalog by <code>CatalogSnapshot</code>.
+ * All methods may be called from several threads.
+ * @see alexchantavy.CourseDatabase#getDepartmentRegistry()
+ * @author Alex Chantavy
+ */
+public class DepartmentRegistry {
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** Default time a department known to be empty is skipped before it is loaded again */
+    public static final long DEFAULT_EMPTY_RECHECK_MILLIS = 24 * 60 * 60 * 1000L;
+    /** The department parameter of the links of an index page, e.g. "&amp;s=ICS" */
+    private static final Pattern DEPARTMENT_LINK = Pattern.compile("(?:[?&]|&amp;)s=([A-Za-z0-9]{1,8})\\b");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final String institution;
+    private final String term;
+    /** URL of the page listing the departments of the term */
+    private final String indexURL;
+    /** The valid codes.  Guarded by this. */
+    private HashSet<String> codes;
+    /** The valid codes in alphabetical order.  Guarded by this. */
+    private String[] sorted;
+    /** When each department known to be empty was found empty.  Guarded by this. */
+    private final Map<String, Long> emptySince = new HashMap<String, Long>();
+    /** When the codes were last discovered, or 0 if they are the built-in list.  Guarded by this. */
+    private long discoveredAt;
+    private volatile long emptyRecheckMillis = DEFAULT_EMPTY_RECHECK_MILLIS;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a registry holding the departments of <code>CourseDatabase.DEPARTMENT_LIST</code>
+     * @param institution The institution code, e.g. MAN
+     * @param term The term code, e.g. 201210
+     */
+    public DepartmentRegistry(String institution, String term) {
+        this(institution, term, Arrays.asList(CourseDatabase.DEPARTMENT_LIST));
+    }
+
+    /**
+     * Creates a registry holding the given departments
+     * @param institution The institution code, e.g. MAN
+     * @param term The term code, e.g. 201210
+     * @param departments The department codes
+     */
+    public DepartmentRegistry(String institution, String term, Collection<String> departments) {
+        this(institution, term, CourseDatabase.indexURL(institution, term), departments);
+    }
+
+    /**
+     * Creates a registry holding the given departments, discovered from the given index page
+     * @param institution The institution code, e.g. MAN
+     * @param term The term code, e.g. 201210
+     * @param indexURL The URL of the page listing the departments of the term
+     * @param departments The department codes
+     */
+    public DepartmentRegistry(String institution, String term, String indexURL, Collection<String> departments) {
+        this.institution = institution;
+        this.term = term;
+        this.indexURL = indexURL;
+        setCodes(departments);
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Downloads the index page of the term and replaces the departments of the registry with
+     * those it links to.  Departments that are no longer listed are forgotten, along with
+     * whether they were empty.  If the download fails or the page lists no department, the
+     * registry is left as it was.
+     * @param scheduler Schedules, times out and retries the request
+     * @return The number of departments found
+     * @throws IOException If downloading the index page fails
+     * @throws InvalidFileFormatException If the page doesn't link to any department
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public int discover(final FetchScheduler scheduler) throws IOException, InvalidFileFormatException, InterruptedException {
+        final String url = getIndexURL();
+        String page = scheduler.execute(new FetchScheduler.Attempt<String>() {
+            public String run() throws IOException {
+                HttpRequest request = scheduler.newRequest(url).header("Accept-Encoding", "gzip").build();
+                HttpResponse<byte[]> response = scheduler.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() >= 400) {
+                    throw new HttpStatusException(response.statusCode(), url);
+                }
+                return new String(PageCache.readBody(response), LATIN1);
+            }
+        });
+        List<String> found = parseIndex(page);
+        if (found.isEmpty()) {
+            throw new InvalidFileFormatException("No departments listed on " + url);
+        }
+        update(found, System.currentTimeMillis());
+        return found.size();
+    }
+
+    /**
+     * Returns the department codes linked to by an index page
+     * @param page The HTML of the page
+     * @return The codes, in upper case, in the order they first appear
+     */
+    static List<String> parseIndex(String page) {
+        List<String> found = new ArrayList<String>();
+        HashSet<String> seen = new HashSet<String>();
+        Matcher m = DEPARTMENT_LINK.matcher(page);
+        while (m.find()) {
+            String code = m.group(1).toUpperCase();
+            if (seen.add(code)) {
+                found.add(code);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Replaces the departments of the registry
+     * @param departments The new department codes
+     * @param when When they were discovered
+     */
+    synchronized void update(Collection<String> departments, long when) {
+        setCodes(departments);
+        emptySince.keySet().retainAll(codes);
+        discoveredAt = when;
+    }
+
+    /**
+     * Restores the state saved by a snapshot
+     * @param departments The department codes
+     * @param empty When each department known to be empty was found empty
+     * @param when When the codes were discovered, or 0 if they are the built-in list
+     */
+    synchronized void restore(Collection<String> departments, Map<String, Long> empty, long when) {
+        setCodes(departments);
+        emptySince.clear();
+        for (Map.Entry<String, Long> e : empty.entrySet()) {
+            if (codes.contains(e.getKey())) {
+                emptySince.put(e.getKey(), e.getValue());
+            }
+        }
+        discoveredAt = when;
+    }
+
+    private synchronized void setCodes(Collection<String> departments) {
+        codes = new HashSet<String>(departments);
+        TreeSet<String> ordered = new TreeSet<String>(codes);
+        sorted = ordered.toArray(new String[ordered.size()]);
+    }
+
+    /**
+     * Returns whether a department exists in the term
+     * @param dept The department abbreviation, e.g. ICS
+     * @return Whether it is one of the registry's departments
+     */
+    public synchronized boolean isValid(String dept) {
+        return codes.contains(dept);
+    }
+
+    /**
+     * Returns every department of the term
+     * @return A new list of the department codes, in alphabetical order
+     */
+    public synchronized List<String> getDepartments() {
+        return new ArrayList<String>(Arrays.asList(sorted));
+    }
+
+    /**
+     * Returns the departments worth downloading: every department of the term except those
+     * found empty less than <code>emptyRecheckMillis</code> ago
+     * @return A new list of the department codes, in alphabetical order
+     */
+    public synchronized List<String> getLoadableDepartments() {
+        long now = System.currentTimeMillis();
+        List<String> loadable = new ArrayList<String>(sorted.length);
+        for (String dept : sorted) {
+            Long since = emptySince.get(dept);
+            if (since == null || now - since >= emptyRecheckMillis) {
+                loadable.add(dept);
+            }
+        }
+        return loadable;
+    }
+
+    /**
+     * Records how many courses a department had when it was loaded
+     * @param dept The department abbreviation
+     * @param courses The number of courses on its page
+     */
+    public synchronized void recordLoad(String dept, int courses) {
+        if (!codes.contains(dept)) {
+            return;
+        }
+        if (courses == 0) {
+            emptySince.put(dept, System.currentTimeMillis());
+        } else {
+            emptySince.remove(dept);
+        }
+    }
+
+    /**
+     * Returns a listener recording the number of courses of every department loaded, to be
+     * passed to <code>CourseDatabase.loadDepartments()</code>
+     * @param next Notified after the count is recorded, may be <code>null</code>
+     * @return The listener
+     */
+    public CourseDatabase.LoadListener recordLoads(final CourseDatabase.LoadListener next) {
+        return new CourseDatabase.LoadListener() {
+            public void departmentLoaded(String dept, LinkedList<Course> courses) {
+                recordLoad(dept, courses.size());
+                if (next != null) {
+                    next.departmentLoaded(dept, courses);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns whether a department had no courses when it was last loaded
+     * @param dept The department abbreviation
+     * @return Whether it is known to be empty
+     */
+    public synchronized boolean isKnownEmpty(String dept) {
+        return emptySince.containsKey(dept);
+    }
+
+    /**
+     * Returns when each department known to be empty was found empty
+     * @return A new map of the times in milliseconds, by department
+     */
+    public synchronized Map<String, Long> getEmptyDepartments() {
+        return new HashMap<String, Long>(emptySince);
+    }
+
+    /**
+     * Sets how long a department found empty is skipped before it is loaded again
+     * @param millis The time in milliseconds
+     */
+    public void setEmptyRecheckMillis(long millis) {
+        this.emptyRecheckMillis = millis;
+    }
+
+    /**
+     * Returns when the departments were last discovered
+     * @return The time in milliseconds, or 0 if they are still the built-in list
+     */
+    public synchronized long getDiscoveredAt() {
+        return discoveredAt;
+    }
+
+    /**
+     * Returns the number of departments of the term
+     * @return The number of department codes
+     */
+    public synchronized int size() {
+        return sorted.length;
+    }
+
+    public String getInstitution() {
+        return institution;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    /**
+     * Returns the URL of the page listing the departments of the term
+     * @return The URL of the index page
+     */
+    public String getIndexURL() {
+        return indexURL;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return institution + " " + term + ": " + sorted.length + " departments, "
+                + emptySince.size() + " empty";
+    }
+}
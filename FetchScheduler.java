@@ -0,0 +1,464 @@
+package alexchantavy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Schedules requests to the Class Availability website so that loading the whole catalog is
+ * as fast as the server allows without overloading it.
+ * <p>Every request attempt needs a token from a token bucket, which limits the request rate,
+ * and a slot below the concurrency limit.  The limit adapts to the server (AIMD): it grows by
+ * about one every round trip while responses stay fast, and is halved when a request fails or
+ * takes more than twice the usual response time.
+ * <p>Failed attempts are retried after a random backoff that doubles with every attempt.  A
+ * client error such as <code>404 Not Found</code> is neither retried nor counted as congestion,
+ * since the server answered and would answer the same way again.
+ * Optionally, an attempt that is still running after a while is hedged: a second attempt is
+ * started and whichever finishes first is used.
+ * <p>Requests are sent with <code>send()</code>, through one <code>HttpClient</code> shared by
+ * every attempt, which keeps its connections alive between requests.  Over HTTPS it negotiates
+ * HTTP/2 with servers that support it, so that concurrent requests share a single connection.
+ * Plain <code>http://</code> URLs, such as the Class Availability website's, are requested over
+ * HTTP/1.1: asking for HTTP/2 there would make every new connection attempt an h2c upgrade, and
+ * requests then only share connections one at a time.
+ * @see alexchantavy.PageCache
+ * @author Alex Chantavy
+ */
+public class FetchScheduler {
+
+    /**
+     * A single request to the server
+     * @param <T> The type of the response
+     */
+    public interface Attempt<T> {
+        /**
+         * Makes the request.  Requests should be built with <code>newRequest()</code> and sent
+         * with <code>send()</code> to get the scheduler's client and timeouts.
+         * @return The response
+         * @throws IOException If the request fails; it may then be retried, unless it is an
+         *         <code>HttpStatusException</code> that isn't retryable
+         */
+        T run() throws IOException;
+    }
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15 * 1000;
+    /** A response taking this many times the usual response time counts as congestion */
+    private static final double SLOW_RESPONSE_FACTOR = 2;
+    /** Weight of a new response time in the usual response time */
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private double ratePerSecond = 20;
+    private double burst = 10;
+    private double tokens = burst;
+    private long lastRefill = System.nanoTime();
+
+    private int minConcurrency = 1, maxConcurrency = 16;
+    /** Current concurrency limit, fractional so that it can grow by 1/limit per response */
+    private double limit = 4;
+    private int inFlight;
+    /** Smoothed response time in milliseconds, or 0 before the first response */
+    private double usualLatency;
+    private long lastDecrease;
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeout = DEFAULT_READ_TIMEOUT_MILLIS;
+    private int maxAttempts = 3;
+    private long baseBackoffMillis = 250, maxBackoffMillis = 4000;
+    /** Time after which an attempt is hedged, or 0 to never hedge */
+    private long hedgeAfterMillis;
+    /** The client shared by every request, or <code>null</code> until the first one */
+    private HttpClient client;
+
+    private long attempts, failures, retries, hedges;
+    private final Random random = new Random();
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fetch-attempt");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a scheduler allowing 20 requests per second in bursts of 10, starting at 4
+     * concurrent requests and growing up to 16, with 3 attempts per request and no hedging.
+     */
+    public FetchScheduler() {
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Sets the rate limit
+     * @param perSecond The number of attempts allowed per second on average
+     * @param burst The number of attempts that may start at once after a quiet period
+     */
+    public synchronized void setRate(double perSecond, int burst) {
+        this.ratePerSecond = perSecond;
+        this.burst = burst;
+        this.tokens = Math.min(tokens, burst);
+    }
+
+    /**
+     * Sets the bounds of the adaptive concurrency limit
+     * @param initial The limit to start from
+     * @param max The limit never exceeded
+     */
+    public synchronized void setConcurrency(int initial, int max) {
+        this.maxConcurrency = max;
+        this.limit = Math.max(minConcurrency, Math.min(initial, max));
+        notifyAll();
+    }
+
+    /**
+     * Sets the timeouts applied by <code>send()</code>
+     * @param connectMillis The connect timeout
+     * @param readMillis The time allowed to receive a whole response once the request is sent
+     */
+    public synchronized void setTimeouts(int connectMillis, int readMillis) {
+        if (connectMillis != connectTimeout) {
+            // The connect timeout belongs to the client, so later requests need a new one
+            client = null;
+        }
+        this.connectTimeout = connectMillis;
+        this.readTimeout = readMillis;
+    }
+
+    /**
+     * Sets how failed attempts are retried
+     * @param maxAttempts The maximum number of attempts per request
+     * @param baseBackoffMillis The longest wait before the first retry
+     * @param maxBackoffMillis The longest wait before any retry
+     */
+    public synchronized void setRetries(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Sets when attempts are hedged
+     * @param millis The time after which a second attempt is started, or 0 to never hedge
+     */
+    public synchronized void setHedgeAfter(long millis) {
+        this.hedgeAfterMillis = millis;
+    }
+
+    /**
+     * Returns the client shared by every request, creating it on first use
+     * @return The client
+     */
+    private synchronized HttpClient getClient() {
+        if (client == null) {
+            client = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofMillis(connectTimeout))
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+        }
+        return client;
+    }
+
+    /**
+     * Starts building a GET request with the scheduler's timeout, over HTTP/1.1 if the URL isn't
+     * secure
+     * @param url The URL requested
+     * @return The builder, to which headers may be added
+     */
+    public synchronized HttpRequest.Builder newRequest(String url) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofMillis(readTimeout));
+        if (url.regionMatches(true, 0, "http:", 0, 5)) {
+            request.version(HttpClient.Version.HTTP_1_1);
+        }
+        return request;
+    }
+
+    /**
+     * Sends a request through the shared client and waits for the whole response, at most the
+     * read timeout.  Meant to be called from an <code>Attempt</code>.
+     * @param request The request, usually built with <code>newRequest()</code>
+     * @param handler Reads the body of the response
+     * @return The response, whatever its status
+     * @throws IOException If the request fails or times out, or the thread is interrupted
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        int timeout;
+        synchronized (this) {
+            timeout = readTimeout;
+        }
+        CompletableFuture<HttpResponse<T>> response = getClient().sendAsync(request, handler);
+        try {
+            return response.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new HttpTimeoutException("No response within " + timeout + " ms from " + request.uri());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + request.uri());
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            // Aborts the exchange unless it completed
+            response.cancel(true);
+        }
+    }
+
+    /**
+     * Makes a request, retrying and hedging its attempts as configured
+     * @param attempt The request
+     * @return The response of the first successful attempt
+     * @throws IOException The failure of the last attempt, if every attempt failed, or the
+     *         first <code>HttpStatusException</code> that isn't retryable
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public <T> T execute(Attempt<T> attempt) throws IOException, InterruptedException {
+        int allowed;
+        synchronized (this) {
+            allowed = maxAttempts;
+        }
+        for (int n = 1; ; n++) {
+            try {
+                return runHedged(attempt);
+            } catch (IOException e) {
+                if (n == allowed || !isRetryable(e)) {
+                    throw e;
+                }
+            }
+            long backoff;
+            synchronized (this) {
+                retries++;
+                // Full jitter: a random wait up to an exponentially growing bound
+                long bound = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(n - 1, 20));
+                backoff = (long) (random.nextDouble() * bound);
+            }
+            Thread.sleep(backoff);
+        }
+    }
+
+    /**
+     * Runs an attempt, starting a second one if the first is still running after the hedge delay
+     * @param attempt The request
+     * @return The response of the first attempt to succeed
+     * @throws IOException If every attempt started failed
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    private <T> T runHedged(final Attempt<T> attempt) throws IOException, InterruptedException {
+        long hedgeAfter;
+        synchronized (this) {
+            hedgeAfter = hedgeAfterMillis;
+        }
+        if (hedgeAfter <= 0) {
+            return runOnce(attempt, false, null);
+        }
+        final CountDownLatch started = new CountDownLatch(1);
+        CompletionService<T> completed = new ExecutorCompletionService<T>(executor);
+        List<Future<T>> running = new ArrayList<Future<T>>(2);
+        try {
+            running.add(completed.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    return runOnce(attempt, false, started);
+                }
+            }));
+            // Time spent waiting for the scheduler doesn't make an attempt a straggler
+            started.await();
+            Future<T> first = completed.poll(hedgeAfter, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                synchronized (this) {
+                    hedges++;
+                }
+                running.add(completed.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        return runOnce(attempt, true, null);
+                    }
+                }));
+                first = completed.take();
+            }
+            try {
+                return first.get();
+            } catch (ExecutionException e) {
+                if (running.size() == 1 || !isRetryable(e.getCause())) {
+                    throw rethrow(e);
+                }
+                // The other attempt may still succeed
+                try {
+                    return completed.take().get();
+                } catch (ExecutionException second) {
+                    throw rethrow(second);
+                }
+            }
+        } finally {
+            for (Future<T> f : running) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns whether an attempt that failed may succeed if it is made again
+     * @param failure The failure of the attempt
+     * @return False for an <code>HttpStatusException</code> that isn't retryable, true otherwise
+     */
+    private static boolean isRetryable(Throwable failure) {
+        return !(failure instanceof HttpStatusException) || ((HttpStatusException) failure).isRetryable();
+    }
+
+    private static IOException rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Runs a single attempt once a token and a concurrency slot are available, and adapts the
+     * concurrency limit to its outcome
+     * @param attempt The request
+     * @param hedge Whether the attempt hedges a straggler
+     * @param started Counted down once the attempt starts or fails to, may be <code>null</code>
+     * @return The response
+     * @throws IOException If the attempt fails
+     * @throws InterruptedException If the thread is interrupted while waiting for a slot
+     */
+    private <T> T runOnce(Attempt<T> attempt, boolean hedge, CountDownLatch started) throws IOException, InterruptedException {
+        try {
+            acquire(hedge);
+        } finally {
+            if (started != null) {
+                started.countDown();
+            }
+        }
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        boolean rejected = false;
+        try {
+            T response = attempt.run();
+            succeeded = true;
+            return response;
+        } catch (IOException e) {
+            rejected = !isRetryable(e);
+            throw e;
+        } finally {
+            // An attempt abandoned for a faster hedge, or rejected by the server, says nothing
+            // about how loaded the server is
+            boolean neutral = rejected || Thread.currentThread().isInterrupted();
+            release((System.nanoTime() - start) / 1e6, succeeded, neutral);
+        }
+    }
+
+    /**
+     * Waits for a token and a slot below the concurrency limit, then takes both.  Hedges only
+     * wait for a token: the straggler they hedge already holds a slot, and queueing them behind
+     * other requests would defeat their purpose.  An attempt abandoned for its hedge keeps its
+     * slot until it ends, since its connection is still open on the server.
+     * @param hedge Whether the attempt hedges a straggler
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    private synchronized void acquire(boolean hedge) throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * ratePerSecond);
+            lastRefill = now;
+            if (!hedge && inFlight >= (int) limit) {
+                wait();
+            } else if (tokens < 1) {
+                wait(Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / ratePerSecond)));
+            } else {
+                tokens -= 1;
+                inFlight++;
+                attempts++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a finished attempt.  A fast success raises the limit by 1/limit, so
+     * that it grows by about one per round trip; a failure or a slow response halves it, at
+     * most once per usual response time so that a burst of failures only counts once.
+     * @param latency The response time of the attempt in milliseconds
+     * @param succeeded Whether the attempt succeeded
+     * @param neutral Whether the attempt was cancelled or rejected with a client error, in which
+     *        case the limit isn't changed
+     */
+    private synchronized void release(double latency, boolean succeeded, boolean neutral) {
+        inFlight--;
+        if (neutral) {
+            notifyAll();
+            return;
+        }
+        boolean slow = usualLatency > 0 && latency > SLOW_RESPONSE_FACTOR * usualLatency;
+        if (succeeded) {
+            usualLatency = usualLatency == 0 ? latency
+                    : usualLatency + LATENCY_SMOOTHING * (latency - usualLatency);
+        } else {
+            failures++;
+        }
+        long now = System.currentTimeMillis();
+        if (!succeeded || slow) {
+            if (now - lastDecrease > usualLatency) {
+                limit = Math.max(minConcurrency, limit / 2);
+                lastDecrease = now;
+            }
+        } else {
+            limit = Math.min(maxConcurrency, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the current concurrency limit
+     * @return The number of attempts allowed to run at once
+     */
+    public synchronized int getConcurrencyLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the smoothed response time of successful attempts
+     * @return The response time in milliseconds, or 0 before the first success
+     */
+    public synchronized double getUsualLatency() {
+        return usualLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return attempts + " attempts, " + failures + " failed, " + retries + " retries, " + hedges
+                + " hedges; limit " + (int) limit + ", usual latency " + Math.round(usualLatency) + " ms";
+    }
+}
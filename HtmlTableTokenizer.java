@@ -0,0 +1,392 @@
+package alexchantavy;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A small HTML tokenizer that reads the text of table cells straight from the bytes of a
+ * UH Class Availability page.
+ * <p>Only text found inside <code>&lt;td&gt;</code> and <code>&lt;th&gt;</code> cells is reported.
+ * Runs of whitespace are collapsed into a single space, the common character entities are decoded,
+ * and text containing characters that can't appear in the course table is dropped, just like the
+ * <code>HTMLEditorKit.ParserCallback</code> that used to do this work.  Unlike the Swing parser, no
+ * document model is built and no AWT or Swing classes are needed, so pages can be parsed headless.
+ * @see alexchantavy.CourseParser
+ * @author Alex Chantavy
+ */
+public class HtmlTableTokenizer {
+
+    /**
+     * Receives each line of text found in the table cells of a page.
+     */
+    public interface LineHandler {
+        /**
+         * Called with the text of a table cell, or of a part of a cell split by markup.
+         * @param line The text
+         * @throws InvalidFileFormatException If the handler rejects the text
+         */
+        void handleLine(String line) throws InvalidFileFormatException;
+    }
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** Characters allowed in a line of text, i.e. <code>[A-Za-z0-9/:,-\\'&amp;=() ]</code>.
+     * Any line containing another character is not part of the course table. */
+    private static final boolean[] ALLOWED = new boolean[128];
+    static {
+        for (int c = ','; c <= '\\'; c++) {
+            ALLOWED[c] = true;
+        }
+        for (int c = 'a'; c <= 'z'; c++) {
+            ALLOWED[c] = true;
+        }
+        ALLOWED['\''] = true;
+        ALLOWED['&'] = true;
+        ALLOWED['('] = true;
+        ALLOWED[')'] = true;
+        ALLOWED[' '] = true;
+    }
+    /** Size of the read buffer */
+    private static final int BUFFER_SIZE = 8192;
+    /** Longest entity name (without '&amp;' and ';') that will be decoded */
+    private static final int MAX_ENTITY_LENGTH = 8;
+    /** Longest tag name that needs to be recognized */
+    private static final int MAX_TAG_LENGTH = 8;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final LineHandler handler;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position, limit;
+    private InputStream in;
+    /** Byte pushed back by <code>unread(int)</code>, or -2 if none */
+    private int pushback = -2;
+
+    /** Text of the current line */
+    private char[] text = new char[128];
+    private int length;
+    private boolean allowed = true;
+    private boolean pendingSpace;
+    /** Whether we are inside a td or th cell */
+    private boolean inCell;
+
+    /** Name of the last tag read, in lower case */
+    private final char[] tag = new char[MAX_TAG_LENGTH];
+    private int tagLength;
+    /** Name of the last entity read */
+    private final char[] entity = new char[MAX_ENTITY_LENGTH];
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a tokenizer reporting each line of text to the given handler
+     * @param handler Receives the lines of text
+     */
+    public HtmlTableTokenizer(LineHandler handler) {
+        this.handler = handler;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Reads the whole page from the given stream, reporting every line of text found
+     * in its table cells.  The stream is not closed.
+     * @param page The bytes of an HTML page
+     * @throws IOException If reading the stream fails
+     * @throws InvalidFileFormatException If the handler rejects a line
+     */
+    public void tokenize(InputStream page) throws IOException, InvalidFileFormatException {
+        this.in = page;
+        this.position = 0;
+        this.limit = 0;
+        this.pushback = -2;
+        this.inCell = false;
+        resetText();
+        int b;
+        while ((b = read()) != -1) {
+            if (b == '<') {
+                readMarkup();
+            } else if (b == '&') {
+                readEntity();
+            } else {
+                append(b);
+            }
+        }
+        flushText();
+        this.in = null;
+    }
+
+    /**
+     * Reads the next byte of the page
+     * @return The next byte, or -1 at the end of the page
+     */
+    private int read() throws IOException {
+        if (pushback != -2) {
+            int b = pushback;
+            pushback = -2;
+            return b;
+        }
+        if (position == limit) {
+            limit = in.read(buffer, 0, BUFFER_SIZE);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Pushes back a single byte, to be returned by the next <code>read()</code>
+     * @param b The byte
+     */
+    private void unread(int b) {
+        pushback = b;
+    }
+
+    /**
+     * Appends a character to the current line of text, collapsing whitespace
+     * @param c The character
+     */
+    private void append(int c) {
+        if (!inCell) {
+            return;
+        }
+        if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f') {
+            pendingSpace = length > 0;
+            return;
+        }
+        if (pendingSpace) {
+            put(' ');
+            pendingSpace = false;
+        }
+        if (c >= ALLOWED.length || !ALLOWED[c]) {
+            allowed = false;
+        }
+        put((char) c);
+    }
+
+    private void put(char c) {
+        if (length == text.length) {
+            char[] bigger = new char[length * 2];
+            System.arraycopy(text, 0, bigger, 0, length);
+            text = bigger;
+        }
+        text[length++] = c;
+    }
+
+    /**
+     * Reports the current line of text, if any, to the handler
+     */
+    private void flushText() throws InvalidFileFormatException {
+        if (length > 0 && allowed) {
+            handler.handleLine(new String(text, 0, length));
+        }
+        resetText();
+    }
+
+    private void resetText() {
+        length = 0;
+        allowed = true;
+        pendingSpace = false;
+    }
+
+    /**
+     * Reads a tag, comment or declaration following a '&lt;'.  A '&lt;' that does not start
+     * markup is treated as text.
+     */
+    private void readMarkup() throws IOException, InvalidFileFormatException {
+        int b = read();
+        if (b == '!' || b == '?') {
+            flushText();
+            skipDeclaration(b);
+            return;
+        }
+        boolean endTag = b == '/';
+        if (endTag) {
+            b = read();
+        }
+        if (!isLetter(b)) {
+            append('<');
+            if (endTag) {
+                append('/');
+            }
+            if (b != -1) {
+                unread(b);
+            }
+            return;
+        }
+        flushText();
+        tagLength = 0;
+        while (isLetter(b) || (b >= '0' && b <= '9')) {
+            if (tagLength < MAX_TAG_LENGTH) {
+                tag[tagLength] = (char) (b | 0x20); // lower case
+            }
+            tagLength++;
+            b = read();
+        }
+        skipAttributes(b);
+        if (endTag) {
+            if (tagIs("td") || tagIs("th") || tagIs("tr") || tagIs("table")) {
+                inCell = false;
+            }
+        } else if (tagIs("td") || tagIs("th")) {
+            inCell = true;
+        } else if (tagIs("tr") || tagIs("table")) {
+            inCell = false;
+        } else if (tagIs("script") || tagIs("style")) {
+            skipRawText();
+        }
+    }
+
+    private static boolean isLetter(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    /**
+     * Returns whether the last tag read has the given (lower case) name
+     * @param name The tag name
+     * @return Whether the names are equal
+     */
+    private boolean tagIs(String name) {
+        if (tagLength != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < tagLength; i++) {
+            if (tag[i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips the attributes of a tag up to and including the closing '&gt;'
+     * @param b The first byte after the tag name
+     */
+    private void skipAttributes(int b) throws IOException {
+        int quote = 0;
+        while (b != -1) {
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return;
+            }
+            b = read();
+        }
+    }
+
+    /**
+     * Skips a comment (&lt;!-- --&gt;), doctype or processing instruction
+     * @param first The byte following the '&lt;'
+     */
+    private void skipDeclaration(int first) throws IOException {
+        int b = read();
+        if (first == '!' && b == '-') {
+            b = read();
+            if (b == '-') {
+                // comment: skip until "-->"
+                int dashes = 0;
+                while ((b = read()) != -1) {
+                    if (b == '>' && dashes >= 2) {
+                        return;
+                    }
+                    dashes = b == '-' ? dashes + 1 : 0;
+                }
+                return;
+            }
+        }
+        while (b != -1 && b != '>') {
+            b = read();
+        }
+    }
+
+    /**
+     * Skips the contents of a script or style element up to and including its end tag
+     */
+    private void skipRawText() throws IOException {
+        int matched = 0; // how much of "</" + tag name has been matched
+        int b;
+        while ((b = read()) != -1) {
+            if (matched == 0) {
+                matched = b == '<' ? 1 : 0;
+            } else if (matched == 1) {
+                matched = b == '/' ? 2 : (b == '<' ? 1 : 0);
+            } else if (matched - 2 < tagLength) {
+                matched = (b | 0x20) == tag[matched - 2] ? matched + 1 : (b == '<' ? 1 : 0);
+            } else {
+                skipAttributes(b);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes a character entity following a '&amp;'.  Entities that aren't recognized
+     * are kept as text.
+     */
+    private void readEntity() throws IOException {
+        int nameLength = 0;
+        int b = read();
+        while (b != -1 && b != ';' && nameLength < MAX_ENTITY_LENGTH
+                && (isLetter(b) || (b >= '0' && b <= '9') || b == '#')) {
+            entity[nameLength++] = (char) b;
+            b = read();
+        }
+        int decoded = b == ';' ? decodeEntity(entity, nameLength) : -1;
+        if (decoded == -1) {
+            append('&');
+            for (int i = 0; i < nameLength; i++) {
+                append(entity[i]);
+            }
+            if (b != -1) {
+                unread(b);
+            }
+        } else {
+            append(decoded);
+        }
+    }
+
+    /**
+     * Returns the character of the given entity name, or -1 if it isn't known
+     * @param name The characters between '&amp;' and ';'
+     * @param length The number of characters
+     * @return The decoded character
+     */
+    private static int decodeEntity(char[] name, int length) {
+        if (length > 1 && name[0] == '#') {
+            try {
+                if (name[1] == 'x' || name[1] == 'X') {
+                    return Integer.parseInt(new String(name, 2, length - 2), 16);
+                }
+                return Integer.parseInt(new String(name, 1, length - 1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        String entity = new String(name, 0, length);
+        if (entity.equals("amp")) {
+            return '&';
+        } else if (entity.equals("nbsp")) {
+            return 0xa0;
+        } else if (entity.equals("lt")) {
+            return '<';
+        } else if (entity.equals("gt")) {
+            return '>';
+        } else if (entity.equals("quot")) {
+            return '"';
+        } else if (entity.equals("apos")) {
+            return '\'';
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,50 @@
+package alexchantavy;
+
+import java.io.IOException;
+
+/**
+ * This exception is thrown when the Class Availability website answers a request with an
+ * error status, e.g. 404 for a department that doesn't exist in a term.
+ * <p>Only server errors (5xx), <code>408 Request Timeout</code> and
+ * <code>429 Too Many Requests</code> are worth retrying; any other client error would fail the
+ * same way again, so <code>FetchScheduler</code> gives up on it at once.
+ * @see alexchantavy.FetchScheduler#execute(FetchScheduler.Attempt)
+ * @author Alex Chantavy
+ */
+@SuppressWarnings("serial")
+public class HttpStatusException extends IOException {
+
+    private final int status;
+    private final String url;
+
+    /**
+     * Creates the exception for an error response
+     * @param status The HTTP status code, e.g. 404
+     * @param url The URL requested
+     */
+    public HttpStatusException(int status, String url) {
+        super("Server returned HTTP response code: " + status + " for URL: " + url);
+        this.status = status;
+        this.url = url;
+    }
+
+    /**
+     * Returns whether the request may succeed if it is made again
+     * @return Whether the status is a server error, 408 or 429
+     */
+    public boolean isRetryable() {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    /**
+     * Returns the HTTP status code of the response
+     * @return The status code, e.g. 404
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public String getURL() {
+        return url;
+    }
+}
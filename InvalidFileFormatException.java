@@ -9,6 +9,9 @@ package alexchantavy;
  */
 @SuppressWarnings("serial")
 public class InvalidFileFormatException extends Exception {
+	/* Where parsing failed, if the exception was created for a line of a page */
+	private String field, prevLine, currentLine;
+	private int lineNum;
 
 	public InvalidFileFormatException() {
 		// TODO Auto-generated constructor stub
@@ -20,10 +23,21 @@ public class InvalidFileFormatException extends Exception {
 		// TODO Auto-generated constructor stub
 	}
 	
+	/**
+	 * Creates the exception for a line of a page that doesn't match the field expected there
+	 * @param failureType The field that was expected, e.g. "Section"
+	 * @param prevLine The line before the failing one
+	 * @param currentLine The failing line
+	 * @param lineNum The (one based) line number of the failing line
+	 */
 	public InvalidFileFormatException(String failureType, String prevLine, String currentLine, int lineNum) {
-		System.out.println("Failure to parse " + failureType + " at line " + lineNum+ "\n" +
+		super("Failure to parse " + failureType + " at line " + lineNum+ "\n" +
 			"Previous line: "+ prevLine + "\n" + 
 			"Current line: "+ currentLine);
+		this.field = failureType;
+		this.prevLine = prevLine;
+		this.currentLine = currentLine;
+		this.lineNum = lineNum;
 	}
 	
 	public InvalidFileFormatException(Throwable cause) {
@@ -36,4 +50,36 @@ public class InvalidFileFormatException extends Exception {
 		// TODO Auto-generated constructor stub
 	}
 
+	/**
+	 * Returns the field that failed to parse
+	 * @return The field, e.g. "Section", or <code>null</code> if the failure isn't about a line
+	 */
+	public String getField() {
+		return field;
+	}
+
+	/**
+	 * Returns the line before the one that failed to parse
+	 * @return The previous line, or <code>null</code> if the failure isn't about a line
+	 */
+	public String getPreviousLine() {
+		return prevLine;
+	}
+
+	/**
+	 * Returns the line that failed to parse
+	 * @return The line, or <code>null</code> if the failure isn't about a line
+	 */
+	public String getCurrentLine() {
+		return currentLine;
+	}
+
+	/**
+	 * Returns the line number of the line that failed to parse
+	 * @return The one based line number, or 0 if the failure isn't about a line
+	 */
+	public int getLineNumber() {
+		return lineNum;
+	}
+
 }
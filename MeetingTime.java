@@ -10,7 +10,71 @@ package alexchantavy;
  */
 public class MeetingTime {
 
+	/** Day of week bits used by <code>getDayMask()</code> */
+	public static final int MONDAY = 1, TUESDAY = 2, WEDNESDAY = 4, THURSDAY = 8,
+			FRIDAY = 16, SATURDAY = 32;
+	/** Value of <code>getStartMinutes()</code> and <code>getEndMinutes()</code> when the time is TBA */
+	public static final int TBA = -1;
+
 	private String days, startTime, endTime, location, dates;
+	/** Days parsed into a bitmask of MONDAY, TUESDAY, etc.  0 when TBA */
+	private int dayMask;
+	/** Start and end times in minutes since midnight, or TBA */
+	private int startMinutes, endMinutes;
+	/** Start time as the four digits shown on the page, e.g. 1030, or 0 when TBA */
+	private int startClock;
+	
+	/**
+	 * Converts a string of days such as "MWF" or "TR" to a bitmask.
+	 * @param days The days string
+	 * @return The bitmask of days, 0 if none are recognized (e.g. "TBA")
+	 */
+	public static int parseDays(String days) {
+		int mask = 0;
+		for (int i = 0; i < days.length(); i++) {
+			switch (days.charAt(i)) {
+				case 'M': mask |= MONDAY; break;
+				case 'T': mask |= TUESDAY; break;
+				case 'W': mask |= WEDNESDAY; break;
+				case 'R': mask |= THURSDAY; break;
+				case 'F': mask |= FRIDAY; break;
+				case 'S': mask |= SATURDAY; break;
+				default: return 0;
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Returns the leading four digits of a time such as "1030-" or "1120a"
+	 * @param time The time string
+	 * @return The four digits as a number, or -1 if the string doesn't start with four digits
+	 */
+	private static int parseClock(String time) {
+		if (time == null || time.length() < 4) {
+			return -1;
+		}
+		int clock = 0;
+		for (int i = 0; i < 4; i++) {
+			char c = time.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			clock = clock * 10 + (c - '0');
+		}
+		return clock;
+	}
+	
+	/**
+	 * Converts the four digits of a 12 hour clock to minutes since midnight
+	 * @param clock The four digits, e.g. 1030
+	 * @param pm Whether the time is p.m.
+	 * @return Minutes since midnight
+	 */
+	private static int toMinutes(int clock, boolean pm) {
+		int minutes = (clock / 100 % 12) * 60 + clock % 100;
+		return pm ? minutes + 12 * 60 : minutes;
+	}
 	
 	/**
 	 * Creates a MeetingTime from the given strings
@@ -28,6 +92,22 @@ public class MeetingTime {
 		this.endTime = endTime;
 		this.location = location;
 		this.dates = dates;
+		this.dayMask = parseDays(days);
+		// Only the end time says whether it is a.m. or p.m., e.g. "1130-" "1220p".
+		// The start time is p.m. too if that still puts it before the end time.
+		int start = parseClock(startTime);
+		int end = parseClock(endTime);
+		if (start < 0 || end < 0) {
+			this.startClock = Math.max(start, 0);
+			this.startMinutes = TBA;
+			this.endMinutes = TBA;
+		} else {
+			boolean pm = endTime.length() > 4 && endTime.charAt(4) == 'p';
+			this.startClock = start;
+			this.endMinutes = toMinutes(end, pm);
+			int sameHalf = toMinutes(start, pm);
+			this.startMinutes = sameHalf <= endMinutes ? sameHalf : toMinutes(start, false);
+		}
 	}
 	
 	/**
@@ -46,6 +126,14 @@ public class MeetingTime {
 		return this.startTime;
 	}
 	
+	/**
+	 * Returns the end time
+	 * @return The end time of the course
+	 */
+	public String getEndTime() {
+		return this.endTime;
+	}
+	
 	/**
 	 * Returns the days the course is offered
 	 * @return String of the days the course is offered 
@@ -54,6 +142,54 @@ public class MeetingTime {
 		return this.days;
 	}
 	
+	/**
+	 * Returns the dates this meeting time applies for
+	 * @return String of the dates, e.g. 01/09-05/04
+	 */
+	public String getDates() {
+		return this.dates;
+	}
+	
+	/**
+	 * Returns the days the course is offered as a bitmask of MONDAY, TUESDAY, etc.
+	 * @return The bitmask of days, 0 when the days are TBA
+	 */
+	public int getDayMask() {
+		return this.dayMask;
+	}
+	
+	/**
+	 * Returns the start time in minutes since midnight
+	 * @return The start time, or TBA
+	 */
+	public int getStartMinutes() {
+		return this.startMinutes;
+	}
+	
+	/**
+	 * Returns the end time in minutes since midnight
+	 * @return The end time, or TBA
+	 */
+	public int getEndMinutes() {
+		return this.endMinutes;
+	}
+	
+	/**
+	 * Returns the start time as the four digits shown on the page, e.g. 1030
+	 * @return The start time digits, or 0 when the start time is TBA
+	 */
+	public int getStartClock() {
+		return this.startClock;
+	}
+	
+	/**
+	 * Returns whether the days or times of this meeting are to be announced
+	 * @return Whether this meeting has no fixed days and times
+	 */
+	public boolean isTBA() {
+		return this.dayMask == 0 || this.startMinutes == TBA;
+	}
+	
 	/**
 	 * Returns a 'pretty' string of the meeting time
 	 * @return A 'pretty' string of the meeting time
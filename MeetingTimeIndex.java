@@ -0,0 +1,187 @@
+package alexchantavy;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An index over every <code>MeetingTime</code> of every course of a catalog, keyed by day of
+ * the week and time of day.
+ * <p>For each day, the meetings held that day are kept in arrays sorted by start time.  A query
+ * binary searches for the first meeting that could match and only visits meetings starting
+ * inside (or, for overlaps, just before) the requested window, so its cost depends on the number
+ * of meetings found rather than the size of the catalog.
+ * <p>Meetings whose days or times are TBA can't be placed on any day; the rows of their courses
+ * are kept separately and returned by <code>tbaRows()</code>.
+ * <p>Courses are identified by their row in the catalog.  Every query returns the rows of the
+ * courses having at least one meeting that matches.
+ * @see alexchantavy.CourseCatalog#getMeetingTimeIndex()
+ * @author Alex Chantavy
+ */
+public class MeetingTimeIndex {
+
+    /** Day bits in the order of the per day arrays */
+    private static final int[] DAYS = {MeetingTime.MONDAY, MeetingTime.TUESDAY, MeetingTime.WEDNESDAY,
+        MeetingTime.THURSDAY, MeetingTime.FRIDAY, MeetingTime.SATURDAY};
+    /** Mask of every day */
+    public static final int ALL_DAYS = MeetingTime.MONDAY | MeetingTime.TUESDAY | MeetingTime.WEDNESDAY
+            | MeetingTime.THURSDAY | MeetingTime.FRIDAY | MeetingTime.SATURDAY;
+    /** Minutes in a day */
+    public static final int END_OF_DAY = 24 * 60;
+
+    /** For every day, the start, end and row of each meeting, sorted by start */
+    private final int[][] starts = new int[DAYS.length][];
+    private final int[][] ends = new int[DAYS.length][];
+    private final int[][] rows = new int[DAYS.length][];
+    /** For every day, the length of the longest meeting */
+    private final int[] longest = new int[DAYS.length];
+    /** Rows of the courses having a meeting with TBA days or times */
+    private final BitSet tba = new BitSet();
+    /** Number of courses indexed */
+    private final int size;
+
+    /**
+     * Builds the index for the given courses
+     * @param courses The courses to index, identified by their position in the list
+     */
+    public MeetingTimeIndex(List<Course> courses) {
+        // Pack start, end and row into a long per meeting so each day sorts as one primitive array
+        long[][] packed = new long[DAYS.length][16];
+        int[] counts = new int[DAYS.length];
+        int row = 0;
+        for (Course c : courses) {
+            for (MeetingTime m : c.getMeetingTimes()) {
+                if (m.isTBA()) {
+                    tba.set(row);
+                    continue;
+                }
+                long key = ((long) m.getStartMinutes() << 43) | ((long) m.getEndMinutes() << 32) | row;
+                for (int d = 0; d < DAYS.length; d++) {
+                    if ((m.getDayMask() & DAYS[d]) != 0) {
+                        if (counts[d] == packed[d].length) {
+                            packed[d] = Arrays.copyOf(packed[d], counts[d] * 2);
+                        }
+                        packed[d][counts[d]++] = key;
+                    }
+                }
+            }
+            row++;
+        }
+        this.size = row;
+        for (int d = 0; d < DAYS.length; d++) {
+            int n = counts[d];
+            Arrays.sort(packed[d], 0, n);
+            starts[d] = new int[n];
+            ends[d] = new int[n];
+            rows[d] = new int[n];
+            for (int i = 0; i < n; i++) {
+                long key = packed[d][i];
+                starts[d][i] = (int) (key >>> 43);
+                ends[d][i] = (int) (key >>> 32) & 0x7ff;
+                rows[d][i] = (int) key;
+                longest[d] = Math.max(longest[d], ends[d][i] - starts[d][i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of courses in the index
+     * @return The number of courses indexed
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the position of the first meeting of the day starting at or after the given time
+     * @param d The day
+     * @param time Minutes since midnight
+     * @return The position in the arrays of the day
+     */
+    private int firstStartingAt(int d, int time) {
+        int low = 0, high = starts[d].length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[d][mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the courses with a meeting on one of the given days that lies entirely within
+     * the window, e.g. what meets on MWF between 9:00 and 12:00.
+     * @param dayMask Mask of MeetingTime days
+     * @param from Start of the window, in minutes since midnight
+     * @param to End of the window, in minutes since midnight
+     * @return A new BitSet of the rows of the matching courses
+     */
+    public BitSet fitsWithin(int dayMask, int from, int to) {
+        BitSet result = new BitSet(size);
+        for (int d = 0; d < DAYS.length; d++) {
+            if ((dayMask & DAYS[d]) == 0) {
+                continue;
+            }
+            for (int i = firstStartingAt(d, from); i < starts[d].length && starts[d][i] <= to; i++) {
+                if (ends[d][i] <= to) {
+                    result.set(rows[d][i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the courses with a meeting on one of the given days that overlaps the window
+     * @param dayMask Mask of MeetingTime days
+     * @param from Start of the window, in minutes since midnight
+     * @param to End of the window, in minutes since midnight
+     * @return A new BitSet of the rows of the matching courses
+     */
+    public BitSet overlaps(int dayMask, int from, int to) {
+        BitSet result = new BitSet(size);
+        for (int d = 0; d < DAYS.length; d++) {
+            if ((dayMask & DAYS[d]) == 0) {
+                continue;
+            }
+            // No meeting starting before from - longest[d] can reach the window
+            for (int i = firstStartingAt(d, from - longest[d]); i < starts[d].length && starts[d][i] < to; i++) {
+                if (ends[d][i] > from) {
+                    result.set(rows[d][i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the courses with a meeting on one of the given days starting at or after the given time
+     * @param dayMask Mask of MeetingTime days
+     * @param time Minutes since midnight
+     * @return A new BitSet of the rows of the matching courses
+     */
+    public BitSet startsAfter(int dayMask, int time) {
+        BitSet result = new BitSet(size);
+        for (int d = 0; d < DAYS.length; d++) {
+            if ((dayMask & DAYS[d]) == 0) {
+                continue;
+            }
+            for (int i = firstStartingAt(d, time); i < starts[d].length; i++) {
+                result.set(rows[d][i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the courses having a meeting whose days or times are TBA.  These courses are
+     * never returned by the other queries for that meeting.
+     * @return A new BitSet of the rows of the courses
+     */
+    public BitSet tbaRows() {
+        return (BitSet) tba.clone();
+    }
+}
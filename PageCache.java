@@ -0,0 +1,503 @@
+package alexchantavy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Caches the department pages of the Class Availability website, so that refreshing an
+ * unchanged catalog costs almost no bandwidth or parsing.
+ * <p>Pages are keyed by URL, which includes the term and department.  Each entry keeps the page
+ * body, its <code>ETag</code> and <code>Last-Modified</code> headers, a hash of the body and
+ * the courses parsed from it.  Every course of a page is parsed and kept, even when the page is
+ * fetched with a <code>CourseQuery</code>; the query only filters the cached courses.  When a
+ * cached page is fetched again, the validators are sent as <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>; a <code>304 Not Modified</code> answer skips both the
+ * download and the parse.  If the server sends the whole page anyway but its hash is unchanged,
+ * the parse is skipped.
+ * <p>Pages are requested gzip compressed and kept decompressed.  Requests go through the
+ * <code>HttpClient</code> of the scheduler, which reuses its connections between requests and
+ * multiplexes them over HTTP/2 when the server supports it.
+ * <p>A cache may be lenient, in which case malformed rows are skipped instead of failing the
+ * whole page, and the <code>ParseReport</code> of the last parse of each page is kept.  A page
+ * with a bad row is then still cached and served, and isn't downloaded again until it changes.
+ * <p>Pages are parsed by a single thread each, unless a <code>ParallelPageParser</code> is set,
+ * which splits large pages between several cores.  The shared cache of
+ * <code>CourseDatabase</code> sets one for pages of 256 KB or more.
+ * <p>The total size of the cached bodies is capped; when it is exceeded, the least recently
+ * used pages are evicted.  All methods may be called from several threads.
+ * @see alexchantavy.CourseDatabase#getPageCache()
+ * @author Alex Chantavy
+ */
+public class PageCache {
+
+    /**
+     * A cached page
+     */
+    private static class Entry {
+        final byte[] body;
+        final byte[] hash;
+        final String etag;
+        final String lastModified;
+        /** Every course of the page, or <code>null</code> until it is parsed.  Guarded by the cache. */
+        LinkedList<Course> courses;
+        /** The report of the last parse of the page when the cache is lenient.  Guarded by the cache. */
+        ParseReport report;
+
+        Entry(byte[] body, byte[] hash, String etag, String lastModified, LinkedList<Course> courses) {
+            this.body = body;
+            this.hash = hash;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.courses = courses;
+        }
+    }
+
+    /**
+     * The outcome of one request for a page
+     */
+    private static class Response {
+        final boolean notModified;
+        final byte[] body;
+        final String etag;
+        final String lastModified;
+
+        Response(boolean notModified, byte[] body, String etag, String lastModified) {
+            this.notModified = notModified;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    /** Schedules, times out and retries the requests */
+    private final FetchScheduler scheduler;
+    /** Pages by URL, least recently used first */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+    /** Bytes received from the server, before decompression */
+    private long transferred;
+    private long notModified, unchanged, downloaded;
+    /** Parses large pages on several cores, or <code>null</code> */
+    private volatile ParallelPageParser parallelParser;
+    /** Whether malformed rows are skipped instead of failing the page */
+    private volatile boolean lenient;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates an empty cache whose requests are scheduled by a <code>FetchScheduler</code>
+     * with default settings
+     * @param maxBytes The maximum total size of the cached page bodies
+     */
+    public PageCache(long maxBytes) {
+        this(maxBytes, new FetchScheduler());
+    }
+
+    /**
+     * Creates an empty cache
+     * @param maxBytes The maximum total size of the cached page bodies
+     * @param scheduler Schedules the requests for pages
+     */
+    public PageCache(long maxBytes, FetchScheduler scheduler) {
+        this.maxBytes = maxBytes;
+        this.scheduler = scheduler;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Returns the courses of the page at the given URL, revalidating the cached copy if there is one
+     * @param url The URL of the department page
+     * @return A new LinkedList of the courses of the page
+     * @throws IOException If downloading the page fails
+     * @throws InvalidFileFormatException If the page is malformed
+     * @throws InterruptedException If the thread is interrupted while waiting for the scheduler
+     */
+    public LinkedList<Course> fetch(String url) throws IOException, InvalidFileFormatException, InterruptedException {
+        return fetch(url, null);
+    }
+
+    /**
+     * Returns the courses of the page at the given URL that match a query, revalidating the
+     * cached copy if there is one.  Every course of the page is parsed and cached, then filtered,
+     * so that later fetches of the page skip the parse.
+     * @param url The URL of the department page
+     * @param query The query, or <code>null</code> for every course
+     * @return A new LinkedList of the matching courses of the page
+     * @throws IOException If downloading the page fails
+     * @throws InvalidFileFormatException If the page is malformed
+     * @throws InterruptedException If the thread is interrupted while waiting for the scheduler
+     */
+    public LinkedList<Course> fetch(final String url, CourseQuery query) throws IOException, InvalidFileFormatException, InterruptedException {
+        final Entry cached;
+        synchronized (this) {
+            cached = entries.get(url);
+        }
+        Response response = scheduler.execute(new FetchScheduler.Attempt<Response>() {
+            public Response run() throws IOException {
+                return request(url, cached);
+            }
+        });
+        if (response.notModified) {
+            synchronized (this) {
+                notModified++;
+            }
+            return coursesOf(cached, query);
+        }
+
+        byte[] body = response.body;
+        byte[] hash = digest().digest(body);
+        String etag = response.etag;
+        String lastModified = response.lastModified;
+        Entry entry = new Entry(body, hash, etag, lastModified, null);
+        synchronized (this) {
+            if (cached != null && MessageDigest.isEqual(hash, cached.hash)) {
+                entry.courses = cached.courses;
+                entry.report = cached.report;
+                unchanged++;
+            } else {
+                downloaded++;
+            }
+        }
+        put(url, entry);
+        return coursesOf(entry, query);
+    }
+
+    /**
+     * Returns the courses of a cached page that match a query, parsing the page if needed
+     * @param entry The cached page
+     * @param query The query, or <code>null</code> for every course
+     * @return A new LinkedList of the matching courses
+     * @throws IOException If reading the body fails
+     * @throws InvalidFileFormatException If the page is malformed
+     */
+    private LinkedList<Course> coursesOf(Entry entry, CourseQuery query) throws IOException, InvalidFileFormatException {
+        LinkedList<Course> courses;
+        synchronized (this) {
+            courses = entry.courses;
+        }
+        if (courses == null) {
+            // Parse every course once, so the next fetch of the page, with or without a query,
+            // skips the parse on a 304 or an unchanged body
+            courses = parse(entry);
+            synchronized (this) {
+                entry.courses = courses;
+            }
+        }
+        return query == null ? new LinkedList<Course>(courses) : query.filter(courses);
+    }
+
+    /**
+     * Parses the courses of a cached page, keeping the report of the parse if the cache is lenient
+     * @param entry The cached page
+     * @return A new LinkedList of every course of the page
+     * @throws IOException If reading the body fails
+     * @throws InvalidFileFormatException If the page is malformed and the cache isn't lenient
+     */
+    private LinkedList<Course> parse(Entry entry) throws IOException, InvalidFileFormatException {
+        ParseReport report = lenient ? new ParseReport() : null;
+        ParallelPageParser parser = parallelParser;
+        LinkedList<Course> courses;
+        if (parser != null) {
+            courses = parser.parse(entry.body, report);
+        } else {
+            courses = CourseDatabase.parseCourses(new ByteArrayInputStream(entry.body), report);
+        }
+        if (report != null) {
+            synchronized (this) {
+                entry.report = report;
+            }
+        }
+        return courses;
+    }
+
+    /**
+     * Sets whether malformed rows are skipped, with their errors kept in the report of the
+     * page, instead of failing the whole page
+     * @param lenient Whether to skip malformed rows
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * Returns the report of the last parse of a cached page
+     * @param url The URL of the page
+     * @return The counts of parsed and skipped rows and the errors of the skipped rows, or
+     * <code>null</code> if the page isn't cached or wasn't parsed leniently
+     */
+    public synchronized ParseReport getReport(String url) {
+        Entry entry = entries.get(url);
+        return entry == null ? null : entry.report;
+    }
+
+    /**
+     * Sets the parser used to split large pages between several cores
+     * @param parser The parser, or <code>null</code> to parse every page on a single thread
+     */
+    public void setParallelParser(ParallelPageParser parser) {
+        this.parallelParser = parser;
+    }
+
+    /**
+     * Requests a page, sending the validators of the cached copy if there is one
+     * @param url The URL of the page
+     * @param cached The cached copy, or <code>null</code>
+     * @return The response
+     * @throws IOException If the request fails
+     */
+    private Response request(String url, Entry cached) throws IOException {
+        HttpRequest.Builder request = scheduler.newRequest(url).header("Accept-Encoding", "gzip");
+        if (cached != null) {
+            if (cached.etag != null) {
+                request.header("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                request.header("If-Modified-Since", cached.lastModified);
+            }
+        }
+        HttpResponse<byte[]> response = scheduler.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        synchronized (this) {
+            transferred += response.body().length;
+        }
+        int status = response.statusCode();
+        if (status >= 400) {
+            throw new HttpStatusException(status, url);
+        }
+        HttpHeaders headers = response.headers();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            return new Response(true, null, null, null);
+        }
+        return new Response(false, readBody(response), headers.firstValue("ETag").orElse(null),
+                headers.firstValue("Last-Modified").orElse(null));
+    }
+
+    /**
+     * Reads the whole body of a response, decompressed and in an ASCII compatible charset
+     * @param response The response, with its body as received
+     * @return The bytes of the body
+     * @throws IOException If decompressing fails
+     */
+    static byte[] readBody(HttpResponse<byte[]> response) throws IOException {
+        InputStream in = decode(response.headers(), new ByteArrayInputStream(response.body()));
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(response.body().length * 4 + 64);
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                body.write(buffer, 0, n);
+            }
+            return body.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the body of a response as bytes the <code>HtmlTableTokenizer</code> can read:
+     * decompressed if the server gzipped it, and converted to UTF-8 if the response's charset
+     * isn't ASCII compatible (e.g. UTF-16), which is rare enough to be done in memory.
+     * @param headers The headers of the response
+     * @param body The raw body of the response
+     * @return The decoded body
+     * @throws IOException If reading fails
+     */
+    static InputStream decode(HttpHeaders headers, InputStream body) throws IOException {
+        InputStream in = body;
+        if ("gzip".equalsIgnoreCase(headers.firstValue("Content-Encoding").orElse(null))) {
+            in = new GZIPInputStream(in, 8192);
+        }
+        Charset charset = charsetOf(headers.firstValue("Content-Type").orElse(null));
+        if (charset == null || isAsciiCompatible(charset)) {
+            return in;
+        }
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(in, charset);
+        try {
+            char[] buffer = new char[8192];
+            for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer)) {
+                text.append(buffer, 0, n);
+            }
+        } finally {
+            reader.close();
+        }
+        return new ByteArrayInputStream(text.toString().getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Returns the charset named by a Content-Type header
+     * @param contentType The header, e.g. "text/html; charset=UTF-8", may be <code>null</code>
+     * @return The charset, or <code>null</code> if none is given or it isn't supported
+     */
+    private static Charset charsetOf(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                String name = param.substring(8).replace("\"", "").trim();
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether every ASCII character is encoded as the same single byte by a charset
+     * @param charset The charset
+     * @return Whether the tokenizer can read the charset's bytes directly
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name();
+        return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-")
+                || name.startsWith("windows-125");
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stores an entry, then evicts the least recently used entries until the cache fits its cap
+     * @param url The URL of the page
+     * @param entry The page
+     */
+    private synchronized void put(String url, Entry entry) {
+        Entry old = entries.put(url, entry);
+        if (old != null) {
+            bytes -= old.body.length;
+        }
+        bytes += entry.body.length;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().body.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns the cached body of the page at the given URL
+     * @param url The URL of the page
+     * @return The bytes of the page, or <code>null</code> if it isn't cached
+     */
+    public synchronized byte[] getBody(String url) {
+        Entry entry = entries.get(url);
+        return entry == null ? null : entry.body.clone();
+    }
+
+    /**
+     * Removes the pages whose URL starts with the given prefix, e.g. every page of a term
+     * @param prefix The start of the URLs to remove
+     * @return The number of pages removed
+     */
+    public synchronized int evict(String prefix) {
+        int removed = 0;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                bytes -= e.getValue().body.length;
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every page from the cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the number of cached pages
+     * @return The number of pages
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total size of the cached page bodies
+     * @return The size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of body bytes received from the server, before decompression
+     * @return The number of bytes transferred
+     */
+    public synchronized long getTransferredBytes() {
+        return transferred;
+    }
+
+    /**
+     * Returns how many fetches were answered with <code>304 Not Modified</code>
+     * @return The number of fetches that downloaded nothing
+     */
+    public synchronized long getNotModifiedCount() {
+        return notModified;
+    }
+
+    /**
+     * Returns how many fetches downloaded a page identical to the cached one
+     * @return The number of fetches that reused the cached page
+     */
+    public synchronized long getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * Returns how many fetches downloaded a new or changed page
+     * @return The number of pages downloaded
+     */
+    public synchronized long getDownloadedCount() {
+        return downloaded;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(entries.size()).append(" pages, ").append(bytes).append(" bytes, ");
+        s.append(transferred).append(" bytes transferred; ");
+        s.append(notModified).append(" not modified, ").append(unchanged).append(" unchanged, ");
+        s.append(downloaded).append(" downloaded");
+        return s.toString();
+    }
+}
@@ -0,0 +1,270 @@
+package alexchantavy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses a single large page on several cores.
+ * <p>The text of the page is split into chunks of about <code>chunkLines</code> lines.  A chunk
+ * always starts at a row: on the focus line before a CRN if the row has one, else on the CRN
+ * itself, the line before being the last line of the previous row.  That is the only context a
+ * <code>CourseParser</code> needs to start there.  The chunks are parsed by separate
+ * parsers on a fork/join pool and their courses are concatenated in page order, so the result
+ * is the same as that of <code>CourseDatabase.parseCourses</code>.
+ * <p>A five digit line isn't always a CRN.  If a chunk was cut in the middle of a row, the
+ * parser of the chunk before it ends in the middle of a course and fails.  Whenever any chunk
+ * fails, the whole page is parsed again by a single parser, which either succeeds or throws the
+ * same exception, with the same line number, as a sequential parse.  When parsing leniently,
+ * a chunk that skipped any row counts as failed, so the errors recorded are always those of a
+ * sequential parse, with the right line numbers.  The number of pages parsed again this way is
+ * kept by <code>getFallbacks()</code>; on a well formed page it stays 0.
+ * @see alexchantavy.CourseParser
+ * @see alexchantavy.PageCache#setParallelParser(ParallelPageParser)
+ * @author Alex Chantavy
+ */
+public class ParallelPageParser {
+
+    /**
+     * Carries the failure of a chunk out of the fork/join pool
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkFailure extends RuntimeException {
+        ChunkFailure(InvalidFileFormatException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Parses the chunks <code>lo</code> to <code>hi</code> (exclusive), splitting the range in
+     * two until a single chunk is left
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<LinkedList<Course>> {
+        private final List<String> lines;
+        private final int[] bounds;
+        private final int lo, hi;
+        /** The report of each chunk, or <code>null</code> when parsing strictly */
+        private final ParseReport[] reports;
+
+        ChunkTask(List<String> lines, int[] bounds, int lo, int hi, ParseReport[] reports) {
+            this.lines = lines;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.reports = reports;
+        }
+
+        @Override
+        protected LinkedList<Course> compute() {
+            if (hi - lo == 1) {
+                ParseReport report = reports == null ? null : new ParseReport();
+                try {
+                    LinkedList<Course> courses = CourseDatabase.parseCourses(
+                            lines.subList(bounds[lo], bounds[hi]), report);
+                    if (report != null) {
+                        if (report.hasErrors()) {
+                            throw new ChunkFailure(report.getErrors().get(0));
+                        }
+                        reports[lo] = report;
+                    }
+                    return courses;
+                } catch (InvalidFileFormatException e) {
+                    throw new ChunkFailure(e);
+                }
+            }
+            int mid = (lo + hi) >>> 1;
+            ChunkTask first = new ChunkTask(lines, bounds, lo, mid, reports);
+            first.fork();
+            LinkedList<Course> second = new ChunkTask(lines, bounds, mid, hi, reports).compute();
+            LinkedList<Course> courses = first.join();
+            courses.addAll(second);
+            return courses;
+        }
+    }
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** Default number of lines per chunk, about 150 rows */
+    public static final int DEFAULT_CHUNK_LINES = 2048;
+    /** Default size below which a page is parsed sequentially, while it is read */
+    public static final int DEFAULT_MIN_PAGE_BYTES = 256 << 10;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final ForkJoinPool pool;
+    private final int chunkLines;
+    private final int minPageBytes;
+    /** Number of pages split into chunks, and of those parsed again sequentially */
+    private final AtomicLong splitPages = new AtomicLong(), fallbacks = new AtomicLong();
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a parser using every available processor, with the default chunk size
+     */
+    public ParallelPageParser() {
+        this(new ForkJoinPool(), DEFAULT_CHUNK_LINES, DEFAULT_MIN_PAGE_BYTES);
+    }
+
+    /**
+     * Creates a parser
+     * @param pool The pool the chunks are parsed on
+     * @param chunkLines The approximate number of lines per chunk
+     * @param minPageBytes Pages smaller than this are parsed sequentially
+     */
+    public ParallelPageParser(ForkJoinPool pool, int chunkLines, int minPageBytes) {
+        this.pool = pool;
+        this.chunkLines = chunkLines;
+        this.minPageBytes = minPageBytes;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Parses the courses of a page, on several cores if the page is large enough
+     * @param page The bytes of the HTML page
+     * @return A LinkedList of the courses, in page order
+     * @throws IOException Never, since the page is in memory
+     * @throws InvalidFileFormatException When the page is malformed
+     */
+    public LinkedList<Course> parse(byte[] page) throws IOException, InvalidFileFormatException {
+        return parse(page, null);
+    }
+
+    /**
+     * Parses the courses of a page, on several cores if the page is large enough, skipping
+     * malformed rows instead of failing if given a report
+     * @param page The bytes of the HTML page
+     * @param report Receives the counts of parsed and skipped rows and the errors of the skipped
+     * rows, or <code>null</code> to fail at the first malformed row
+     * @return A LinkedList of the courses, in page order
+     * @throws IOException Never, since the page is in memory
+     * @throws InvalidFileFormatException When the page is malformed and no report is given
+     */
+    public LinkedList<Course> parse(byte[] page, ParseReport report) throws IOException, InvalidFileFormatException {
+        if (page.length < minPageBytes || pool.getParallelism() < 2) {
+            return CourseDatabase.parseCourses(new ByteArrayInputStream(page), report);
+        }
+        final ArrayList<String> lines = new ArrayList<String>(page.length / 16);
+        new HtmlTableTokenizer(new HtmlTableTokenizer.LineHandler() {
+            public void handleLine(String line) {
+                lines.add(line);
+            }
+        }).tokenize(new ByteArrayInputStream(page));
+        return parse(lines, report);
+    }
+
+    /**
+     * Parses the courses of the lines of text of a page on several cores
+     * @param lines The lines of text of a UH Class Availability page
+     * @return A LinkedList of the courses, in page order
+     * @throws InvalidFileFormatException When the page is malformed
+     */
+    public LinkedList<Course> parse(List<String> lines) throws InvalidFileFormatException {
+        return parse(lines, null);
+    }
+
+    /**
+     * Parses the courses of the lines of text of a page on several cores, skipping malformed
+     * rows instead of failing if given a report
+     * @param lines The lines of text of a UH Class Availability page
+     * @param report Receives the counts of parsed and skipped rows and the errors of the skipped
+     * rows, or <code>null</code> to fail at the first malformed row
+     * @return A LinkedList of the courses, in page order
+     * @throws InvalidFileFormatException When the page is malformed and no report is given
+     */
+    public LinkedList<Course> parse(List<String> lines, ParseReport report) throws InvalidFileFormatException {
+        int[] bounds = split(lines);
+        if (bounds.length > 2) {
+            splitPages.incrementAndGet();
+            ParseReport[] reports = report == null ? null : new ParseReport[bounds.length - 1];
+            try {
+                LinkedList<Course> courses = pool.invoke(new ChunkTask(lines, bounds, 0, bounds.length - 1, reports));
+                if (report != null) {
+                    for (ParseReport r : reports) {
+                        report.add(r);
+                    }
+                }
+                return courses;
+            } catch (ChunkFailure e) {
+                // A chunk was cut in the wrong place or the page is malformed;
+                // a single parser tells which, with the right line number
+                fallbacks.incrementAndGet();
+            }
+        }
+        return CourseDatabase.parseCourses(lines, report);
+    }
+
+    /**
+     * Returns where the chunks of a page start: line 0, then the first row found at least
+     * <code>chunkLines</code> lines after the start of the previous chunk
+     * @param lines The lines of text of the page
+     * @return The first line of each chunk, followed by the number of lines
+     */
+    private int[] split(List<String> lines) {
+        int size = lines.size();
+        int[] bounds = new int[size / chunkLines + 2];
+        int count = 1;
+        for (int i = chunkLines; i < size; i++) {
+            if (isCrn(lines.get(i))) {
+                // Without a focus line, the line before the CRN ends the previous row
+                bounds[count++] = Requirement.parseMask(lines.get(i - 1)) != 0 ? i - 1 : i;
+                i += chunkLines - 1;
+            }
+        }
+        bounds[count++] = size;
+        int[] trimmed = new int[count];
+        System.arraycopy(bounds, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * Returns the number of pages that were split into chunks
+     * @return The number of pages parsed on several cores
+     */
+    public long getSplitPages() {
+        return splitPages.get();
+    }
+
+    /**
+     * Returns the number of split pages that were parsed again by a single parser, because a
+     * chunk was cut in the middle of a row or the page is malformed
+     * @return The number of fallbacks to a sequential parse
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    @Override
+    public String toString() {
+        return splitPages.get() + " pages split, " + fallbacks.get() + " parsed again sequentially";
+    }
+
+    /**
+     * Returns whether a line looks like a CRN, i.e. is five digits
+     * @param line The line
+     * @return Whether the line is five digits
+     */
+    private static boolean isCrn(String line) {
+        if (line.length() != 5) {
+            return false;
+        }
+        for (int i = 0; i < 5; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counts the rows of a page that a lenient <code>CourseParser</code> parsed and skipped, and
+ * keeps the error that made it skip each skipped row.
+ * <p>A parser given a report doesn't throw when a row is malformed; it records the error, skips
+ * ahead to the next CRN and goes on, so that one bad row only costs that row instead of the
+ * whole department.  A report is filled by a single parser and should only be read once that
+ * parser is finished.
+ * @see alexchantavy.CourseParser
+ * @see alexchantavy.PageCache#getReport(String)
+ * @author Alex Chantavy
+ */
+public class ParseReport {
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private int parsed, skipped;
+    private final List<InvalidFileFormatException> errors = new ArrayList<InvalidFileFormatException>();
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Counts a row that was parsed completely, whether or not it matched the parser's filter
+     */
+    void rowParsed() {
+        parsed++;
+    }
+
+    /**
+     * Counts a row that was skipped
+     * @param error The reason it was skipped, with the line it failed at
+     */
+    void rowSkipped(InvalidFileFormatException error) {
+        skipped++;
+        errors.add(error);
+    }
+
+    /**
+     * Adds the counts and errors of another report, e.g. of another part of the same page
+     * @param other The other report
+     */
+    void add(ParseReport other) {
+        parsed += other.parsed;
+        skipped += other.skipped;
+        errors.addAll(other.errors);
+    }
+
+    /**
+     * Returns the number of rows that were parsed completely
+     * @return The number of parsed rows
+     */
+    public int getParsedCount() {
+        return parsed;
+    }
+
+    /**
+     * Returns the number of rows that were skipped because they were malformed
+     * @return The number of skipped rows
+     */
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Returns the error of each skipped row, in page order
+     * @return An unmodifiable list of the errors
+     */
+    public List<InvalidFileFormatException> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Returns whether any row was skipped
+     * @return Whether there were errors
+     */
+    public boolean hasErrors() {
+        return skipped > 0;
+    }
+
+    @Override
+    public String toString() {
+        return parsed + " rows parsed, " + skipped + " skipped";
+    }
+}
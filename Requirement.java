@@ -0,0 +1,80 @@
+package alexchantavy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Gen. Ed., Div. and Focus requirement codes that a course may fulfill.
+ * <p>Each code has its own bit, so the requirements of a course (or of a
+ * <code>SearchCriteria</code>) can be stored as a single int and compared with
+ * bitwise operations instead of substring searches.
+ * @see alexchantavy.RequirementIndex
+ * @author Alex Chantavy
+ */
+public enum Requirement {
+    // Gen. Ed. (foundations) requirements
+    FGA, FGB, FGC, FS, FW, HSL, NI,
+    // Diversification requirements
+    DA, DB, DH, DL, DP, DS, DY,
+    // Focus requirements
+    ETH, HAP, OC, WI;
+
+    /** Requirements by code, e.g. "OC" */
+    private static final Map<String, Requirement> BY_CODE = new HashMap<String, Requirement>();
+    static {
+        for (Requirement r : values()) {
+            BY_CODE.put(r.name(), r);
+        }
+    }
+
+    /**
+     * Returns the bit of this requirement
+     * @return The bit used for this requirement in requirement masks
+     */
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Returns the requirement with the given code
+     * @param code The requirement code, e.g. "DA"
+     * @return The requirement, or <code>null</code> if there is no such code
+     */
+    public static Requirement forCode(String code) {
+        return BY_CODE.get(code);
+    }
+
+    /**
+     * Returns the bit of the given code, as chosen in a search.
+     * @param code The requirement code, e.g. "DA", or "Any"
+     * @return The bit of the requirement, or 0 for "Any" or unknown codes
+     */
+    public static int maskOf(String code) {
+        Requirement r = code == null ? null : BY_CODE.get(code);
+        return r == null ? 0 : r.bit();
+    }
+
+    /**
+     * Decodes the Gen. Ed./Div./Focus column of a course, e.g. "DA, WI" or "FGB DP",
+     * into a requirement mask.  Only whole codes count, so "DATA" does not match "DA".
+     * @param focus The text of the column
+     * @return The OR of the bits of every code found, 0 if none
+     */
+    public static int parseMask(String focus) {
+        int mask = 0;
+        int start = -1;
+        for (int i = 0; i <= focus.length(); i++) {
+            boolean letter = i < focus.length() && Character.isLetter(focus.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                // codes are 2 or 3 letters long
+                if (i - start <= 3) {
+                    mask |= maskOf(focus.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,65 @@
+package alexchantavy;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An inverted index from each <code>Requirement</code> to the courses that fulfill it.
+ * <p>Courses are identified by their position in the list the index was built from.
+ * Finding the courses that fulfill several requirements is then a few ANDs of bitsets
+ * instead of a scan over every course's focus string.
+ * @see alexchantavy.Requirement
+ * @author Alex Chantavy
+ */
+public class RequirementIndex {
+
+    /** For every requirement, the positions of the courses that fulfill it */
+    private final BitSet[] courses;
+    /** Number of courses indexed */
+    private final int size;
+
+    /**
+     * Builds the index for the given list of courses
+     * @param catalog The courses to index.  Should support fast random access.
+     */
+    public RequirementIndex(List<Course> catalog) {
+        Requirement[] requirements = Requirement.values();
+        this.courses = new BitSet[requirements.length];
+        for (int r = 0; r < requirements.length; r++) {
+            courses[r] = new BitSet();
+        }
+        int row = 0;
+        for (Course c : catalog) {
+            int mask = c.getRequirementMask();
+            while (mask != 0) {
+                courses[Integer.numberOfTrailingZeros(mask)].set(row);
+                mask &= mask - 1;
+            }
+            row++;
+        }
+        this.size = row;
+    }
+
+    /**
+     * Returns the number of courses in the index
+     * @return The number of courses indexed
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the positions of the courses fulfilling every requirement in the given mask.
+     * @param requiredMask OR of <code>Requirement.bit()</code>s, 0 matches every course
+     * @return A new BitSet with the positions of the matching courses
+     */
+    public BitSet matching(int requiredMask) {
+        BitSet result = new BitSet(size);
+        result.set(0, size);
+        while (requiredMask != 0) {
+            result.and(courses[Integer.numberOfTrailingZeros(requiredMask)]);
+            requiredMask &= requiredMask - 1;
+        }
+        return result;
+    }
+}
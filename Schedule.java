@@ -0,0 +1,178 @@
+package alexchantavy;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of course sections whose meeting times don't overlap, as produced by a
+ * <code>ScheduleBuilder</code>.
+ * <p>The time a schedule (or a single section) occupies during the week is encoded as a bitmask
+ * of five minute slots, one run of slots per day.  Two sets of sections conflict exactly when
+ * their masks have a bit in common, so conflict checks are ANDs of a few words.
+ * @see alexchantavy.ScheduleBuilder
+ * @author Alex Chantavy
+ */
+public class Schedule {
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** Length of a slot of the weekly occupancy mask */
+    static final int SLOT_MINUTES = 5;
+    /** Number of slots in a day */
+    static final int SLOTS_PER_DAY = MeetingTimeIndex.END_OF_DAY / SLOT_MINUTES;
+    /** Number of days in the mask, Monday to Saturday */
+    static final int DAYS = 6;
+    /** Number of longs in an occupancy mask */
+    static final int WORDS = (SLOTS_PER_DAY * DAYS + 63) / 64;
+
+    /** Schedules meeting on the fewest days first */
+    public static final Comparator<Schedule> FEWEST_DAYS = new Comparator<Schedule>() {
+        public int compare(Schedule a, Schedule b) {
+            return a.getDaysOnCampus() - b.getDaysOnCampus();
+        }
+    };
+    /** Schedules with the latest first class first */
+    public static final Comparator<Schedule> LATEST_START = new Comparator<Schedule>() {
+        public int compare(Schedule a, Schedule b) {
+            return b.getEarliestStart() - a.getEarliestStart();
+        }
+    };
+    /** Schedules with the least time between classes first */
+    public static final Comparator<Schedule> LEAST_IDLE_TIME = new Comparator<Schedule>() {
+        public int compare(Schedule a, Schedule b) {
+            return a.getIdleMinutes() - b.getIdleMinutes();
+        }
+    };
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final List<Course> sections;
+    private final long[] occupancy;
+
+    /**
+     * Creates a schedule of the given sections
+     * @param sections The sections, which must not conflict
+     * @param occupancy The OR of the occupancy masks of the sections
+     */
+    Schedule(List<Course> sections, long[] occupancy) {
+        this.sections = Collections.unmodifiableList(sections);
+        this.occupancy = occupancy;
+    }
+
+    /**
+     * Returns the weekly occupancy mask of the given course's scheduled meetings.
+     * Meetings with TBA days or times don't occupy any slot.
+     * @param c The course
+     * @return A new mask of <code>WORDS</code> longs
+     */
+    static long[] occupancy(Course c) {
+        long[] mask = new long[WORDS];
+        for (MeetingTime m : c.getMeetingTimes()) {
+            if (m.isTBA()) {
+                continue;
+            }
+            int first = m.getStartMinutes() / SLOT_MINUTES;
+            int last = (m.getEndMinutes() + SLOT_MINUTES - 1) / SLOT_MINUTES; // exclusive
+            for (int day = 0; day < DAYS; day++) {
+                if ((m.getDayMask() & (1 << day)) == 0) {
+                    continue;
+                }
+                for (int slot = day * SLOTS_PER_DAY + first; slot < day * SLOTS_PER_DAY + last; slot++) {
+                    mask[slot >>> 6] |= 1L << slot;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns whether the given slot of the occupancy mask is taken
+     * @param day The day, 0 for Monday
+     * @param slot The slot of the day
+     * @return Whether a class meets during the slot
+     */
+    private boolean occupied(int day, int slot) {
+        int bit = day * SLOTS_PER_DAY + slot;
+        return (occupancy[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Returns the sections of this schedule, in the order the courses were requested
+     * @return An unmodifiable list of the sections
+     */
+    public List<Course> getSections() {
+        return sections;
+    }
+
+    /**
+     * Returns the number of days with at least one scheduled class
+     * @return The number of days on campus
+     */
+    public int getDaysOnCampus() {
+        int days = 0;
+        for (int day = 0; day < DAYS; day++) {
+            for (int slot = 0; slot < SLOTS_PER_DAY; slot++) {
+                if (occupied(day, slot)) {
+                    days++;
+                    break;
+                }
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Returns the earliest time any class of the schedule starts
+     * @return Minutes since midnight, or MeetingTime.TBA if no class is scheduled
+     */
+    public int getEarliestStart() {
+        int earliest = MeetingTime.TBA;
+        for (Course c : sections) {
+            for (MeetingTime m : c.getMeetingTimes()) {
+                if (!m.isTBA() && (earliest == MeetingTime.TBA || m.getStartMinutes() < earliest)) {
+                    earliest = m.getStartMinutes();
+                }
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Returns the total time spent between classes on the same day during the week
+     * @return The idle time in minutes
+     */
+    public int getIdleMinutes() {
+        int idle = 0;
+        for (int day = 0; day < DAYS; day++) {
+            int free = 0;
+            boolean started = false;
+            for (int slot = 0; slot < SLOTS_PER_DAY; slot++) {
+                if (occupied(day, slot)) {
+                    if (started) {
+                        idle += free;
+                    }
+                    started = true;
+                    free = 0;
+                } else {
+                    free++;
+                }
+            }
+        }
+        return idle * SLOT_MINUTES;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (Course c : sections) {
+            if (s.length() > 0) {
+                s.append(", ");
+            }
+            s.append(c.getCourseAbbrev()).append(" (").append(c.getCrn()).append(')');
+        }
+        return s.toString();
+    }
+}
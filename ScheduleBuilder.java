@@ -0,0 +1,455 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lists every combination of sections of a set of wanted courses (e.g. "ICS 311", "MATH 307",
+ * "ENG 100") whose meeting times don't overlap.
+ * <p>Optionally, only sections with open seats, sections starting no earlier than a given time,
+ * and sections that leave some days free are considered.  Each section's weekly occupancy is
+ * encoded as a bitmask (see <code>Schedule</code>), so that checking a section against the
+ * sections chosen so far is a handful of ANDs.
+ * <p>The search is a backtracking search over the courses, fewest sections first.  The choices
+ * for the first courses are split into fork/join tasks, so large searches use every core.
+ * Schedules can be received through a listener, pulled lazily from an iterator, or ranked
+ * to keep only the best few.
+ * @see alexchantavy.Schedule
+ * @author Alex Chantavy
+ */
+public class ScheduleBuilder {
+
+    /**
+     * Receives the schedules found by a search.  Since the search runs on several threads,
+     * implementations must be thread safe.
+     */
+    public interface ScheduleListener {
+        /**
+         * Called for every conflict free schedule
+         * @param s The schedule
+         */
+        void scheduleFound(Schedule s);
+    }
+
+    /** Number of courses whose sections are split into separate fork/join tasks */
+    private static final int FORK_DEPTH = 2;
+    /** Number of schedules buffered ahead of a lazy iterator */
+    private static final int STREAM_BUFFER = 256;
+    /** Time a lazy iterator may leave its buffer full before its search is given up */
+    private static final long STREAM_ABANDON_MILLIS = 60 * 1000;
+
+    /**
+     * A section together with its weekly occupancy mask
+     */
+    private static final class Section {
+        final Course course;
+        final long[] slots;
+        /** Range of words of <code>slots</code> that aren't 0 */
+        final int firstWord, lastWord;
+
+        Section(Course course) {
+            this.course = course;
+            this.slots = Schedule.occupancy(course);
+            int first = 0, last = -1;
+            for (int w = slots.length - 1; w >= 0; w--) {
+                if (slots[w] != 0) {
+                    if (last < 0) {
+                        last = w;
+                    }
+                    first = w;
+                }
+            }
+            this.firstWord = first;
+            this.lastWord = last;
+        }
+
+        boolean conflictsWith(long[] occupied) {
+            for (int w = firstWord; w <= lastWord; w++) {
+                if ((slots[w] & occupied[w]) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void occupy(long[] occupied) {
+            for (int w = firstWord; w <= lastWord; w++) {
+                occupied[w] |= slots[w];
+            }
+        }
+
+        /** Undoes <code>occupy()</code>.  Only valid since chosen sections never overlap. */
+        void release(long[] occupied) {
+            for (int w = firstWord; w <= lastWord; w++) {
+                occupied[w] &= ~slots[w];
+            }
+        }
+    }
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    /** Sections of every course, by course abbreviation */
+    private final Map<String, List<Course>> sectionsByCourse = new HashMap<String, List<Course>>();
+    private final ForkJoinPool pool;
+    private boolean openSeatsOnly;
+    private int earliestStart = MeetingTime.TBA;
+    private int freeDays;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a schedule builder choosing sections from the given courses
+     * @param courses The courses to choose from, e.g. a whole catalog
+     */
+    public ScheduleBuilder(List<Course> courses) {
+        this(courses, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a schedule builder choosing sections from the given courses
+     * @param courses The courses to choose from, e.g. a whole catalog
+     * @param pool The pool the search runs in
+     */
+    public ScheduleBuilder(List<Course> courses, ForkJoinPool pool) {
+        this.pool = pool;
+        for (Course c : courses) {
+            List<Course> sections = sectionsByCourse.get(c.getCourseAbbrev());
+            if (sections == null) {
+                sections = new ArrayList<Course>();
+                sectionsByCourse.put(c.getCourseAbbrev(), sections);
+            }
+            sections.add(c);
+        }
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Sets whether only sections with open seats are considered
+     * @param required Whether open seats are required
+     */
+    public void setOpenSeatsRequired(boolean required) {
+        this.openSeatsOnly = required;
+    }
+
+    /**
+     * Only considers sections with no class starting before the given time
+     * @param minutes Minutes since midnight, or MeetingTime.TBA for no restriction
+     */
+    public void setEarliestStart(int minutes) {
+        this.earliestStart = minutes;
+    }
+
+    /**
+     * Only considers sections with no class on the given days
+     * @param days The days to keep free, e.g. "F"
+     */
+    public void setFreeDays(String days) {
+        this.freeDays = days == null ? 0 : MeetingTime.parseDays(days);
+    }
+
+    /**
+     * Returns whether a section satisfies the constraints of this builder
+     * @param c The section
+     * @return Whether the section may be chosen
+     */
+    private boolean eligible(Course c) {
+        if (openSeatsOnly && !c.hasOpenSeats()) {
+            return false;
+        }
+        if ((c.getDayMask() & freeDays) != 0) {
+            return false;
+        }
+        if (earliestStart != MeetingTime.TBA) {
+            for (MeetingTime m : c.getMeetingTimes()) {
+                if (!m.isTBA() && m.getStartMinutes() < earliestStart) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs a search, handing every schedule found to the listener.
+     * @param wanted The abbreviations of the wanted courses, e.g. "ICS 311"
+     * @param listener Receives the schedules, possibly from several threads
+     */
+    public void forEachSchedule(List<String> wanted, ScheduleListener listener) {
+        Search root = newSearch(wanted, listener, new AtomicBoolean());
+        if (root != null) {
+            pool.invoke(root);
+        }
+    }
+
+    /**
+     * Returns every schedule, found lazily in the background as the iterator is consumed.
+     * The search runs in a pool of its own, as wide as the builder's pool, since its tasks wait
+     * whenever the reader falls behind and would otherwise hold the builder's threads.  Call
+     * <code>close()</code> on the returned stream if it isn't read to the end; a stream left
+     * unread with a full buffer for <code>STREAM_ABANDON_MILLIS</code> is closed anyway.
+     * @param wanted The abbreviations of the wanted courses, e.g. "ICS 311"
+     * @return The schedules
+     */
+    public ScheduleStream schedules(List<String> wanted) {
+        final ScheduleStream stream = new ScheduleStream();
+        final Search search = newSearch(wanted, stream, stream.cancelled);
+        if (search == null) {
+            stream.finish();
+        } else {
+            stream.pool = new ForkJoinPool(pool.getParallelism());
+            stream.pool.execute(new RecursiveAction() {
+                protected void compute() {
+                    try {
+                        search.invoke();
+                    } finally {
+                        stream.finish();
+                    }
+                }
+            });
+        }
+        return stream;
+    }
+
+    /**
+     * Returns the best schedules according to the given order
+     * @param wanted The abbreviations of the wanted courses, e.g. "ICS 311"
+     * @param k The number of schedules to return
+     * @param order Better schedules first, e.g. <code>Schedule.FEWEST_DAYS</code>
+     * @return At most k schedules, best first
+     */
+    public List<Schedule> topSchedules(List<String> wanted, final int k, final Comparator<Schedule> order) {
+        // Keep the k best in a heap whose head is the worst of them
+        final PriorityQueue<Schedule> best = new PriorityQueue<Schedule>(k + 1, Collections.reverseOrder(order));
+        forEachSchedule(wanted, new ScheduleListener() {
+            public void scheduleFound(Schedule s) {
+                synchronized (best) {
+                    if (best.size() < k) {
+                        best.add(s);
+                    } else if (k > 0 && order.compare(s, best.peek()) < 0) {
+                        best.poll();
+                        best.add(s);
+                    }
+                }
+            }
+        });
+        List<Schedule> result = new ArrayList<Schedule>(best);
+        Collections.sort(result, order);
+        return result;
+    }
+
+    /**
+     * Prepares the root task of a search
+     * @return The task, or <code>null</code> if some wanted course has no eligible section
+     */
+    private Search newSearch(List<String> wanted, ScheduleListener listener, AtomicBoolean cancelled) {
+        final Section[][] choices = new Section[wanted.size()][];
+        for (int i = 0; i < choices.length; i++) {
+            List<Course> sections = sectionsByCourse.get(wanted.get(i));
+            List<Section> eligible = new ArrayList<Section>();
+            if (sections != null) {
+                for (Course c : sections) {
+                    if (eligible(c)) {
+                        eligible.add(new Section(c));
+                    }
+                }
+            }
+            if (eligible.isEmpty()) {
+                return null;
+            }
+            choices[i] = eligible.toArray(new Section[eligible.size()]);
+        }
+        // Choosing the courses with the fewest sections first prunes the search earliest
+        Integer[] order = new Integer[choices.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return choices[a].length - choices[b].length;
+            }
+        });
+        Section[][] sorted = new Section[choices.length][];
+        int[] position = new int[choices.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = choices[order[i]];
+            position[i] = order[i];
+        }
+        return new Search(sorted, position, listener, cancelled, 0,
+                new Section[choices.length], new long[Schedule.WORDS]);
+    }
+
+    /**
+     * A part of the backtracking search: every way to complete the sections chosen so far.
+     */
+    @SuppressWarnings("serial")
+    private static class Search extends RecursiveAction {
+        private final Section[][] choices;
+        /** Position in the wanted list of each course of <code>choices</code> */
+        private final int[] position;
+        private final ScheduleListener listener;
+        private final AtomicBoolean cancelled;
+        private final int depth;
+        private final Section[] chosen;
+        private final long[] occupied;
+
+        Search(Section[][] choices, int[] position, ScheduleListener listener, AtomicBoolean cancelled,
+                int depth, Section[] chosen, long[] occupied) {
+            this.choices = choices;
+            this.position = position;
+            this.listener = listener;
+            this.cancelled = cancelled;
+            this.depth = depth;
+            this.chosen = chosen;
+            this.occupied = occupied;
+        }
+
+        @Override
+        protected void compute() {
+            if (depth >= FORK_DEPTH || depth == choices.length) {
+                search(depth);
+                return;
+            }
+            List<Search> tasks = new ArrayList<Search>();
+            for (Section s : choices[depth]) {
+                if (!s.conflictsWith(occupied)) {
+                    Section[] nextChosen = chosen.clone();
+                    nextChosen[depth] = s;
+                    long[] nextOccupied = occupied.clone();
+                    s.occupy(nextOccupied);
+                    tasks.add(new Search(choices, position, listener, cancelled,
+                            depth + 1, nextChosen, nextOccupied));
+                }
+            }
+            invokeAll(tasks);
+        }
+
+        /** Sequential backtracking from the given depth */
+        private void search(int d) {
+            if (cancelled.get()) {
+                return;
+            }
+            if (d == choices.length) {
+                Course[] sections = new Course[chosen.length];
+                for (int i = 0; i < chosen.length; i++) {
+                    sections[position[i]] = chosen[i].course;
+                }
+                listener.scheduleFound(new Schedule(Arrays.asList(sections), occupied.clone()));
+                return;
+            }
+            for (Section s : choices[d]) {
+                if (!s.conflictsWith(occupied)) {
+                    chosen[d] = s;
+                    s.occupy(occupied);
+                    search(d + 1);
+                    s.release(occupied);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules found by a background search, handed out one at a time.  The search pauses
+     * while the buffer of found schedules is full, and gives up once the reader hasn't taken a
+     * schedule for <code>STREAM_ABANDON_MILLIS</code>.
+     */
+    public static class ScheduleStream implements Iterator<Schedule>, ScheduleListener {
+        /** Marks the end of the search in the queue */
+        private static final Schedule END = new Schedule(new ArrayList<Course>(), new long[0]);
+        private final BlockingQueue<Schedule> queue = new ArrayBlockingQueue<Schedule>(STREAM_BUFFER);
+        /** Set once the reader gave up; shared with the search tasks */
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        /** The pool the search runs in, or <code>null</code> if there was nothing to search */
+        private volatile ForkJoinPool pool;
+        /** When the reader last took a schedule, or the stream was created */
+        private volatile long lastRead = System.currentTimeMillis();
+        private Schedule next;
+
+        public void scheduleFound(Schedule s) {
+            try {
+                while (!cancelled.get() && !queue.offer(s, 100, TimeUnit.MILLISECONDS)) {
+                    if (System.currentTimeMillis() - lastRead > STREAM_ABANDON_MILLIS) {
+                        close();
+                    }
+                }
+            } catch (InterruptedException e) {
+                close();
+            }
+        }
+
+        /** Called once the search is over */
+        private void finish() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            try {
+                while (!queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                    if (cancelled.get() || System.currentTimeMillis() - lastRead > STREAM_ABANDON_MILLIS) {
+                        // Every task is done, so nothing can fill the buffer again
+                        close();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public boolean hasNext() {
+            if (cancelled.get()) {
+                next = END;
+            }
+            if (next == null) {
+                try {
+                    next = queue.take();
+                    lastRead = System.currentTimeMillis();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    next = END;
+                }
+            }
+            return next != END;
+        }
+
+        public Schedule next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Schedule s = next;
+            next = null;
+            return s;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Stops the search and shuts down its pool.  Schedules already found are discarded.
+         */
+        public void close() {
+            cancelled.set(true);
+            queue.clear();
+            ForkJoinPool searching = pool;
+            if (searching != null) {
+                searching.shutdown();
+            }
+        }
+    }
+}
@@ -24,11 +24,32 @@ package alexchantavy;
  * fulfilling "Any" Gen. Ed Requirement, "Any" Div. Requirement, and with "OC"
  * Focus in order to get a list of all classes with OC requirements.
  *
+ * <p>Optionally, a criteria may also restrict open seats, credits, days, the time
+ * window, the instructor, the title, keywords and the start of the course abbreviation.  These
+ * are unrestricted unless set.
+ * <code>CourseQuery.compile(SearchCriteria)</code> turns a criteria into a query
+ * that can be run against a <code>CourseCatalog</code>.</p>
+ *
+ * @see alexchantavy.CourseQuery
  * @author Alex Chantavy
  */
 public class SearchCriteria {
     private String department, genEdReq, divReq, focusReq;
     private boolean onlineOnly;
+    /** The gen. ed., div. and focus requirements combined into a mask of Requirement bits */
+    private int requirementMask;
+    private boolean openSeatsOnly;
+    private float minCredits = 0, maxCredits = Float.MAX_VALUE;
+    /** Days the course may meet on, as a mask of MeetingTime days.  0 means any day */
+    private int dayMask;
+    /** Time window in minutes since midnight, or MeetingTime.TBA if unrestricted */
+    private int earliestStart = MeetingTime.TBA, latestEnd = MeetingTime.TBA;
+    /** Words the instructor or title must contain, or <code>null</code> */
+    private String instructor, title;
+    /** Words the title or instructor must contain, or <code>null</code> */
+    private String keywords;
+    /** Start of the course abbreviation, e.g. "ICS 3", or <code>null</code> */
+    private String coursePrefix;
 
     public SearchCriteria (String dept, String genEd, String div, String focus, boolean online) {
         this.department = dept;
@@ -36,6 +57,8 @@ public class SearchCriteria {
         this.divReq = div;
         this.focusReq = focus;
         this.onlineOnly = online;
+        this.requirementMask = Requirement.maskOf(genEd) | Requirement.maskOf(div)
+                | Requirement.maskOf(focus);
     }
 
     /**
@@ -70,6 +93,15 @@ public class SearchCriteria {
         return this.focusReq;
     }
 
+    /**
+     * Returns the gen. ed., div. and focus requirements of the criterion as one mask.
+     * "Any" contributes no bits, so a mask of 0 means there are no requirements.
+     * @return OR of the <code>Requirement.bit()</code>s required
+     */
+    public int getRequirementMask() {
+        return this.requirementMask;
+    }
+
     /**
      * Returns whether the criterion requires the course to have open seats
      * @return Whether it is required for the course to have open seats
@@ -78,6 +110,168 @@ public class SearchCriteria {
         return this.onlineOnly;
     }
 
+    /**
+     * Sets whether the course must have open seats
+     * @param required Whether open seats are required
+     */
+    public void setOpenSeatsRequired(boolean required) {
+        this.openSeatsOnly = required;
+    }
+
+    /**
+     * Returns whether the criterion requires the course to have open seats
+     * @return Whether open seats are required
+     */
+    public boolean openSeatsRequired() {
+        return this.openSeatsOnly;
+    }
+
+    /**
+     * Restricts the number of credits.  A variable credit course matches if any
+     * number of credits it may be taken for is within the range.
+     * @param min The minimum number of credits
+     * @param max The maximum number of credits
+     */
+    public void setCreditRange(float min, float max) {
+        this.minCredits = min;
+        this.maxCredits = max;
+    }
+
+    /**
+     * Returns the minimum number of credits
+     * @return The minimum number of credits, 0 if unrestricted
+     */
+    public float getMinCredits() {
+        return this.minCredits;
+    }
+
+    /**
+     * Returns the maximum number of credits
+     * @return The maximum number of credits, Float.MAX_VALUE if unrestricted
+     */
+    public float getMaxCredits() {
+        return this.maxCredits;
+    }
+
+    /**
+     * Returns whether the number of credits is restricted
+     * @return Whether a credit range was set
+     */
+    public boolean hasCreditRange() {
+        return this.minCredits > 0 || this.maxCredits != Float.MAX_VALUE;
+    }
+
+    /**
+     * Restricts the days the course may meet on
+     * @param days The allowed days, e.g. "MWF", or "Any"
+     */
+    public void setDays(String days) {
+        this.dayMask = days == null || days.equals("Any") ? 0 : MeetingTime.parseDays(days);
+    }
+
+    /**
+     * Returns the days the course may meet on
+     * @return Mask of MeetingTime days, 0 if any day is allowed
+     */
+    public int getDayMask() {
+        return this.dayMask;
+    }
+
+    /**
+     * Restricts the time of day the course meets
+     * @param earliestStart Earliest start, in minutes since midnight, or MeetingTime.TBA
+     * @param latestEnd Latest end, in minutes since midnight, or MeetingTime.TBA
+     */
+    public void setTimeWindow(int earliestStart, int latestEnd) {
+        this.earliestStart = earliestStart;
+        this.latestEnd = latestEnd;
+    }
+
+    /**
+     * Returns the earliest time a course may start
+     * @return Minutes since midnight, or MeetingTime.TBA if unrestricted
+     */
+    public int getEarliestStart() {
+        return this.earliestStart;
+    }
+
+    /**
+     * Returns the latest time a course may end
+     * @return Minutes since midnight, or MeetingTime.TBA if unrestricted
+     */
+    public int getLatestEnd() {
+        return this.latestEnd;
+    }
+
+    /**
+     * Requires every word of the given text to match a word of the instructor's name, ignoring
+     * case, either as the start of the word or with a typo or two, e.g. "smtih" for Smith
+     * @param instructor The text, or <code>null</code> for any instructor
+     */
+    public void setInstructor(String instructor) {
+        this.instructor = instructor;
+    }
+
+    /**
+     * Returns the words the instructor's name must contain
+     * @return The text, or <code>null</code> for any instructor
+     */
+    public String getInstructor() {
+        return this.instructor;
+    }
+
+    /**
+     * Requires every word of the given text to match a word of the course title, like
+     * <code>setInstructor(String)</code>
+     * @param title The text, or <code>null</code> for any title
+     */
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    /**
+     * Returns the words the course title must contain
+     * @return The text, or <code>null</code> for any title
+     */
+    public String getTitle() {
+        return this.title;
+    }
+
+    /**
+     * Requires every word of the given text to match a word of the title or of the instructor's
+     * name, like <code>setInstructor(String)</code>.  Courses found with keywords are ranked by
+     * relevance.
+     * @param keywords The text, e.g. "hawaiian language", or <code>null</code> for any course
+     */
+    public void setKeywords(String keywords) {
+        this.keywords = keywords;
+    }
+
+    /**
+     * Returns the words the title or instructor must contain
+     * @return The text, or <code>null</code> for any course
+     */
+    public String getKeywords() {
+        return this.keywords;
+    }
+
+    /**
+     * Requires the course abbreviation to start with the given text, ignoring case and spaces,
+     * e.g. "ICS 3" for every 300 level ICS course
+     * @param coursePrefix The text, or <code>null</code> for any course
+     */
+    public void setCoursePrefix(String coursePrefix) {
+        this.coursePrefix = coursePrefix;
+    }
+
+    /**
+     * Returns the text the course abbreviation must start with
+     * @return The text, or <code>null</code> for any course
+     */
+    public String getCoursePrefix() {
+        return this.coursePrefix;
+    }
+
     @Override
     public String toString () {
         return "Dept: " + this.department + ", Gen Ed: " + this.genEdReq +
@@ -0,0 +1,477 @@
+package alexchantavy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A headless HTTP service answering course searches as JSON, for use without the applet.
+ * <p>The catalog is loaded once and shared, read only, by every request; searches run a
+ * <code>CourseQuery</code> against its indexes and never download anything.  Each request
+ * searches the catalog that was current when it started, so a refresh of the
+ * <code>CourseDatabase</code> never gives it partial results.  Each request runs
+ * on its own virtual thread when the Java runtime has them, otherwise on a cached thread pool.
+ * Results are streamed to the client as they are written.
+ * <p>Endpoints:
+ * <ul>
+ *    <li><code>GET /search</code> takes the parameters <code>dept</code>, <code>gened</code>,
+ *        <code>div</code>, <code>focus</code> (each defaulting to "Any"), <code>online</code>,
+ *        <code>open</code>, <code>minCredits</code>, <code>maxCredits</code>, <code>days</code>
+ *        (e.g. MWF), <code>from</code> and <code>to</code> (24 hour HHMM), <code>course</code>
+ *        (the start of the course abbreviation, e.g. ICS 3), <code>instructor</code>,
+ *        <code>title</code>, <code>q</code> (keywords searched in both, tolerating typos) and
+ *        <code>limit</code>, and returns a JSON array of courses, ranked by relevance when
+ *        <code>q</code> is given.</li>
+ *    <li><code>GET /course</code> takes a <code>crn</code> and returns its course as a JSON
+ *        object, or 404 if no course has it.</li>
+ *    <li><code>GET /complete</code> takes a <code>prefix</code>, e.g. MATH 2, and an optional
+ *        <code>limit</code>, and returns a JSON array of the course abbreviations starting with
+ *        it, in alphabetical order.</li>
+ *    <li><code>GET /status</code> returns the number of courses loaded.</li>
+ * </ul>
+ * @see alexchantavy.SearchCriteria
+ * @author Alex Chantavy
+ */
+public class SearchServer {
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /** Port used when none is given on the command line */
+    public static final int DEFAULT_PORT = 8080;
+    /** Number of pending connections the server accepts before refusing new ones */
+    private static final int BACKLOG = 1024;
+    /** Number of abbreviations returned by <code>/complete</code> when no limit is given */
+    public static final int DEFAULT_COMPLETIONS = 10;
+
+    static {
+        // Chunked responses end with small writes that Nagle's algorithm would hold back for
+        // a delayed ACK, adding about 40 ms to every request.  Read when HttpServer starts.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final CourseDatabase database;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a server answering searches over the current catalog of the given database
+     * @param database The database to search
+     */
+    public SearchServer(CourseDatabase database) {
+        this.database = database;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Starts listening on the given port
+     * @param port The port, or 0 for any free port
+     * @throws IOException If the port can't be opened
+     */
+    public synchronized void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.createContext("/search", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    search(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/course", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    course(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/complete", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    complete(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Writer out = beginJson(exchange, 200);
+                    out.write("{\"courses\":" + database.size() + "}");
+                    out.flush();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting at most the given time for running requests to finish
+     * @param delaySeconds The time to wait
+     */
+    public synchronized void stop(int delaySeconds) {
+        if (server != null) {
+            server.stop(delaySeconds);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * Returns the port the server listens on
+     * @return The port
+     */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Answers a <code>/search</code> request
+     * @param exchange The request
+     * @throws IOException If writing the response fails
+     */
+    private void search(HttpExchange exchange) throws IOException {
+        CourseCatalog searched = database.getCatalog();
+        SearchCriteria criteria;
+        int limit;
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            criteria = toCriteria(params);
+            limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : Integer.MAX_VALUE;
+        } catch (IllegalArgumentException e) {
+            writeError(exchange, 400, e.getMessage());
+            return;
+        }
+        List<Course> results = CourseQuery.compile(criteria).run(searched);
+        Writer out = beginJson(exchange, 200);
+        out.write('[');
+        int written = 0;
+        for (Course c : results) {
+            if (written == limit) {
+                break;
+            }
+            if (written++ > 0) {
+                out.write(',');
+            }
+            writeCourse(out, c);
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    /**
+     * Answers a <code>/course</code> request with the course of a CRN, found by the catalog's
+     * CRN index
+     * @param exchange The request
+     * @throws IOException If writing the response fails
+     */
+    private void course(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        int crn;
+        try {
+            crn = Integer.parseInt(param(params, "crn", ""));
+        } catch (NumberFormatException e) {
+            writeError(exchange, 400, "Invalid crn: " + params.get("crn"));
+            return;
+        }
+        Course c = database.getCatalog().findByCrn(crn);
+        if (c == null) {
+            writeError(exchange, 404, "No course with crn " + crn);
+            return;
+        }
+        Writer out = beginJson(exchange, 200);
+        writeCourse(out, c);
+        out.flush();
+    }
+
+    /**
+     * Answers a <code>/complete</code> request with the course abbreviations starting with a
+     * prefix, found by the catalog's abbreviation trie
+     * @param exchange The request
+     * @throws IOException If writing the response fails
+     */
+    private void complete(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        int limit;
+        try {
+            limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_COMPLETIONS;
+        } catch (NumberFormatException e) {
+            writeError(exchange, 400, "Invalid limit: " + params.get("limit"));
+            return;
+        }
+        String prefix = params.get("prefix");
+        List<String> completions = database.getCatalog().completeAbbreviation(prefix == null ? "" : prefix, limit);
+        Writer out = beginJson(exchange, 200);
+        out.write('[');
+        for (int i = 0; i < completions.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeString(out, completions.get(i));
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    //////////////////////////////////
+    // S t a t i c  M e t h o d s   //
+    //////////////////////////////////
+    /**
+     * Returns an executor running each task on a new virtual thread if the runtime supports
+     * them, or on a cached thread pool otherwise.
+     * @return The executor
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method perTask = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) perTask.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Splits a URL query string into its decoded parameters
+     * @param query The raw query, may be <code>null</code>
+     * @return The parameters by name
+     */
+    static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.length() == 0) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(decode(name), decode(value));
+        }
+        return params;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builds the search criteria described by request parameters
+     * @param params The parameters of a <code>/search</code> request
+     * @return The criteria
+     * @throws IllegalArgumentException If a parameter has an invalid value
+     */
+    static SearchCriteria toCriteria(Map<String, String> params) {
+        SearchCriteria criteria = new SearchCriteria(param(params, "dept", "Any"),
+                param(params, "gened", "Any"), param(params, "div", "Any"),
+                param(params, "focus", "Any"), Boolean.parseBoolean(params.get("online")));
+        criteria.setOpenSeatsRequired(Boolean.parseBoolean(params.get("open")));
+        if (params.containsKey("minCredits") || params.containsKey("maxCredits")) {
+            criteria.setCreditRange(Float.parseFloat(param(params, "minCredits", "0")),
+                    params.containsKey("maxCredits") ? Float.parseFloat(params.get("maxCredits")) : Float.MAX_VALUE);
+        }
+        if (params.containsKey("days")) {
+            if (MeetingTime.parseDays(params.get("days")) == 0) {
+                throw new IllegalArgumentException("Invalid days: " + params.get("days"));
+            }
+            criteria.setDays(params.get("days"));
+        }
+        if (params.containsKey("from") || params.containsKey("to")) {
+            criteria.setTimeWindow(params.containsKey("from") ? parseTime(params.get("from")) : MeetingTime.TBA,
+                    params.containsKey("to") ? parseTime(params.get("to")) : MeetingTime.TBA);
+        }
+        criteria.setCoursePrefix(params.get("course"));
+        criteria.setInstructor(params.get("instructor"));
+        criteria.setTitle(params.get("title"));
+        criteria.setKeywords(params.get("q"));
+        return criteria;
+    }
+
+    private static String param(Map<String, String> params, String name, String defaultValue) {
+        String value = params.get(name);
+        return value == null || value.length() == 0 ? defaultValue : value;
+    }
+
+    /**
+     * Converts a 24 hour HHMM time to minutes since midnight
+     * @param time The time, e.g. 1330
+     * @return The minutes since midnight
+     * @throws IllegalArgumentException If the time is invalid
+     */
+    private static int parseTime(String time) {
+        if (!time.matches("\\d{4}")) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+        int hours = Integer.parseInt(time.substring(0, 2));
+        int minutes = Integer.parseInt(time.substring(2));
+        if (hours > 24 || minutes > 59) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+        return hours * 60 + minutes;
+    }
+
+    /**
+     * Sends the response headers of a JSON body of unknown length, which is then sent in chunks
+     * @param exchange The request
+     * @param status The HTTP status
+     * @return A writer for the body
+     * @throws IOException If sending the headers fails
+     */
+    private static Writer beginJson(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), "UTF-8"), 8192);
+    }
+
+    /**
+     * Sends an error as a JSON object
+     * @param exchange The request
+     * @param status The HTTP status
+     * @param message The error message
+     * @throws IOException If writing the response fails
+     */
+    private static void writeError(HttpExchange exchange, int status, String message) throws IOException {
+        Writer out = beginJson(exchange, status);
+        out.write("{\"error\":");
+        writeString(out, message);
+        out.write("}");
+        out.flush();
+    }
+
+    /**
+     * Writes a course as a JSON object
+     * @param out The response body
+     * @param c The course
+     * @throws IOException If writing fails
+     */
+    static void writeCourse(Writer out, Course c) throws IOException {
+        out.write("{\"crn\":");
+        out.write(Integer.toString(c.getCrn()));
+        out.write(",\"department\":");
+        writeString(out, c.getDepartment());
+        out.write(",\"course\":");
+        writeString(out, c.getCourseAbbrev());
+        out.write(",\"section\":");
+        writeString(out, c.getSection());
+        out.write(",\"title\":");
+        writeString(out, c.getTitle());
+        out.write(",\"instructor\":");
+        writeString(out, c.getInstructor());
+        out.write(",\"credits\":");
+        writeString(out, c.getCredits());
+        out.write(",\"seats\":");
+        out.write(Integer.toString(c.getSeats()));
+        out.write(",\"focus\":");
+        writeString(out, c.getFocus());
+        out.write(",\"meetings\":[");
+        boolean first = true;
+        for (MeetingTime m : c.getMeetingTimes()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("{\"days\":");
+            writeString(out, m.getDays());
+            out.write(",\"start\":");
+            writeString(out, m.getStartTime());
+            out.write(",\"end\":");
+            writeString(out, m.getEndTime());
+            out.write(",\"location\":");
+            writeString(out, m.getLocation());
+            out.write(",\"dates\":");
+            writeString(out, m.getDates());
+            out.write('}');
+        }
+        out.write("]}");
+    }
+
+    /**
+     * Writes a JSON string literal
+     * @param out The response body
+     * @param s The string, may be <code>null</code>
+     * @throws IOException If writing fails
+     */
+    static void writeString(Writer out, String s) throws IOException {
+        if (s == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        // Write the runs of characters that need no escaping in one call
+        int run = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\' || ch < 0x20) {
+                out.write(s, run, i - run);
+                if (ch < 0x20) {
+                    out.write(String.format("\\u%04x", (int) ch));
+                } else {
+                    out.write('\\');
+                    out.write(ch);
+                }
+                run = i + 1;
+            }
+        }
+        out.write(s, run, s.length() - run);
+        out.write('"');
+    }
+
+    /**
+     * Runs the search service.
+     * <p>Usage: <code>SearchServer [port] [snapshot file]</code>.  With a snapshot file, the
+     * server starts from the saved catalog and downloads a fresh one in the background.
+     * Otherwise every department is downloaded once before the server starts.
+     * @param args The port and snapshot file, both optional
+     * @throws Exception If the catalog can't be loaded or the port can't be opened
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        File snapshot = args.length > 1 ? new File(args[1]) : null;
+        CourseDatabase database;
+        if (snapshot != null) {
+            database = CourseDatabase.openSnapshot(snapshot);
+        } else {
+            database = new CourseDatabase(CourseDatabase.loadAllDepartments());
+        }
+        SearchServer server = new SearchServer(database);
+        server.start(port);
+        System.out.println("Serving " + database.size() + " courses on port " + server.getPort());
+    }
+}
@@ -0,0 +1,216 @@
+package alexchantavy;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent loads of the same key, so that callers asking for a key that is already
+ * being loaded wait for that load instead of starting their own.
+ * <p>Each load runs on a thread of its own and is shared by every caller that asks for its key
+ * while it runs, and for <code>windowMillis</code> after it succeeds; after that, it is dropped
+ * by the next call, so values of keys that aren't asked for again aren't kept.  Failures are
+ * passed on to every waiting caller and are not kept, so the next caller starts a new load.  A
+ * caller that is interrupted or times out stops waiting; the load itself is only cancelled once
+ * every caller waiting for it has given up.
+ * @param <V> The type of the loaded values
+ * @see alexchantavy.CourseDatabase
+ * @author Alex Chantavy
+ */
+public class SingleFlight<V> {
+
+    /**
+     * A load in progress or recently finished
+     */
+    private class Flight extends FutureTask<V> {
+        final String key;
+        /** Number of callers waiting for the load.  Guarded by the SingleFlight. */
+        int waiters;
+        /** When the load succeeded, or 0 while it runs.  Guarded by the SingleFlight. */
+        long completedAt;
+
+        Flight(String key, Callable<V> loader) {
+            super(loader);
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            synchronized (SingleFlight.this) {
+                if (isCancelled() || failed()) {
+                    if (flights.get(key) == this) {
+                        flights.remove(key);
+                    }
+                } else {
+                    completedAt = System.currentTimeMillis();
+                    completed.add(this);
+                }
+            }
+        }
+
+        private boolean failed() {
+            try {
+                get();
+                return false;
+            } catch (ExecutionException e) {
+                return true;
+            } catch (InterruptedException e) {
+                // Can't happen, the task is done
+                Thread.currentThread().interrupt();
+                return true;
+            }
+        }
+
+        /**
+         * Returns whether the result is too old to be shared with a new caller
+         * @param now The current time
+         * @return Whether a new load should be started
+         */
+        boolean expired(long now) {
+            return completedAt != 0 && now - completedAt > windowMillis;
+        }
+    }
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    /** Loads by key.  Guarded by this. */
+    private final Map<String, Flight> flights = new HashMap<String, Flight>();
+    /** Successful loads, oldest first, until they are dropped.  Guarded by this. */
+    private final ArrayDeque<Flight> completed = new ArrayDeque<Flight>();
+    private final long windowMillis;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "single-flight");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates a SingleFlight
+     * @param windowMillis How long the result of a successful load is shared with new callers
+     */
+    public SingleFlight(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Returns the value of the given key, joining the load already running for it if there is one
+     * @param key The key
+     * @param loader Loads the value if no load is running
+     * @return The loaded value, shared with every other caller of the same load
+     * @throws ExecutionException If the load failed
+     * @throws InterruptedException If the caller is interrupted while waiting
+     */
+    public V get(String key, Callable<V> loader) throws ExecutionException, InterruptedException {
+        Flight flight = join(key, loader);
+        boolean finished = false;
+        try {
+            V value = flight.get();
+            finished = true;
+            return value;
+        } catch (ExecutionException e) {
+            finished = true;
+            throw e;
+        } finally {
+            leave(flight, finished);
+        }
+    }
+
+    /**
+     * Returns the value of the given key, joining the load already running for it if there is
+     * one, and waiting at most the given time
+     * @param key The key
+     * @param loader Loads the value if no load is running
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The loaded value, shared with every other caller of the same load
+     * @throws ExecutionException If the load failed
+     * @throws InterruptedException If the caller is interrupted while waiting
+     * @throws TimeoutException If the load didn't finish in time
+     */
+    public V get(String key, Callable<V> loader, long timeout, TimeUnit unit)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        Flight flight = join(key, loader);
+        boolean finished = false;
+        try {
+            V value = flight.get(timeout, unit);
+            finished = true;
+            return value;
+        } catch (ExecutionException e) {
+            finished = true;
+            throw e;
+        } finally {
+            leave(flight, finished);
+        }
+    }
+
+    /**
+     * Returns the flight of the given key, starting one if none is running or shareable
+     * @param key The key
+     * @param loader Loads the value
+     * @return The flight, with the caller counted as a waiter
+     */
+    private synchronized Flight join(String key, Callable<V> loader) {
+        expire(System.currentTimeMillis());
+        Flight flight = flights.get(key);
+        if (flight == null) {
+            flight = new Flight(key, loader);
+            flights.put(key, flight);
+            executor.execute(flight);
+        }
+        flight.waiters++;
+        return flight;
+    }
+
+    /**
+     * Drops the successful loads whose result is no longer shared, unless a newer load of the
+     * same key has replaced them already
+     * @param now The current time
+     */
+    private void expire(long now) {
+        while (!completed.isEmpty() && completed.peek().expired(now)) {
+            Flight flight = completed.poll();
+            if (flights.get(flight.key) == flight) {
+                flights.remove(flight.key);
+            }
+        }
+    }
+
+    /**
+     * Stops counting a caller as a waiter of a flight, cancelling the load if it was the last
+     * waiter and gave up before the load finished
+     * @param flight The flight
+     * @param finished Whether the caller got the outcome of the load
+     */
+    private synchronized void leave(Flight flight, boolean finished) {
+        flight.waiters--;
+        if (!finished && flight.waiters == 0 && !flight.isDone()) {
+            flight.cancel(true);
+        }
+    }
+
+    /**
+     * Returns the number of keys being loaded or whose result is still shared
+     * @return The number of flights
+     */
+    public synchronized int size() {
+        expire(System.currentTimeMillis());
+        return flights.size();
+    }
+}
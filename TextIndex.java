@@ -0,0 +1,467 @@
+package alexchantavy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A full-text index over the titles and instructors of the courses of a catalog.
+ * <p>Each field is split into words, ignoring case and punctuation, and every distinct word
+ * gets a postings list: the rows whose field holds it, in increasing order.  A word of a query
+ * matches the words of the index that start with it, so "haw" finds "Hawaiian", or that are
+ * within a few typos of it, so "hawaian" and "smtih" find "Hawaiian" and "Smith".  The words
+ * within <code>maxEdits()</code> of a query word are found with a BK-tree of the words of the
+ * field, which only compares the query word with a small part of the dictionary.  A course
+ * matches a query when every word of the query matches a word of its field.
+ * <p><code>rank()</code> orders matching rows by relevance: exact words score higher than
+ * prefixes and typos, rare words higher than common ones, and titles higher than instructors.
+ * <p><code>matches()</code> answers the same question for a single piece of text without an
+ * index, so that a <code>CourseQuery</code> returns the same courses with or without one.
+ * <p>Rows are added one at a time, in the order the courses are added to the catalog.
+ * @see alexchantavy.CourseCatalog#getTextIndex()
+ * @author Alex Chantavy
+ */
+public class TextIndex {
+
+    /**
+     * The fields of a course that are indexed
+     */
+    public enum Field {
+        TITLE(2f), INSTRUCTOR(1f);
+
+        /** How much a match in this field counts towards the relevance of a course */
+        private final float weight;
+
+        private Field(float weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The words of one field, with their postings and the BK-tree of the words
+     */
+    private static class FieldIndex {
+        /** Word numbers by word */
+        final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        /** Word numbers by word, in alphabetical order for prefix lookups */
+        final TreeMap<String, Integer> sorted = new TreeMap<String, Integer>();
+        final List<String> words = new ArrayList<String>();
+        /** The word numbers of every distinct text added, since sections of a course share
+         * their title and instructors teach several sections */
+        final HashMap<String, int[]> texts = new HashMap<String, int[]>();
+        /* Postings of each word: its rows, and how many of them there are */
+        int[][] postings = new int[64][];
+        int[] counts = new int[64];
+        /* BK-tree nodes, indexed by word; word 0 is the root */
+        int[] firstChild = new int[64];
+        int[] nextSibling = new int[64];
+        /** Edit distance of each word to its parent in the BK-tree */
+        int[] distance = new int[64];
+
+        /**
+         * Adds the words of a row's field
+         * @param text The text of the field
+         * @param row The row, greater than any row added before
+         */
+        void add(String text, int row) {
+            if (text == null) {
+                return;
+            }
+            int[] found = texts.get(text);
+            if (found == null) {
+                List<String> tokens = tokenize(text);
+                found = new int[tokens.size()];
+                for (int i = 0; i < found.length; i++) {
+                    Integer id = ids.get(tokens.get(i));
+                    found[i] = id != null ? id : newWord(tokens.get(i));
+                }
+                texts.put(text, found);
+            }
+            for (int id : found) {
+                int[] rows = postings[id];
+                int count = counts[id];
+                if (count > 0 && rows[count - 1] == row) {
+                    continue;
+                }
+                if (count == rows.length) {
+                    rows = postings[id] = Arrays.copyOf(rows, count * 2);
+                }
+                rows[count] = row;
+                counts[id] = count + 1;
+            }
+        }
+
+        private int newWord(String word) {
+            int id = words.size();
+            if (id == counts.length) {
+                int capacity = id * 2;
+                postings = Arrays.copyOf(postings, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                distance = Arrays.copyOf(distance, capacity);
+            }
+            ids.put(word, id);
+            sorted.put(word, id);
+            words.add(word);
+            postings[id] = new int[2];
+            firstChild[id] = -1;
+            nextSibling[id] = -1;
+            if (id > 0) {
+                // Walk down the BK-tree to the child at the same distance, if there is one
+                int node = 0;
+                while (true) {
+                    int d = levenshtein(word, words.get(node));
+                    int child = firstChild[node];
+                    while (child != -1 && distance[child] != d) {
+                        child = nextSibling[child];
+                    }
+                    if (child == -1) {
+                        distance[id] = d;
+                        nextSibling[id] = firstChild[node];
+                        firstChild[node] = id;
+                        break;
+                    }
+                    node = child;
+                }
+            }
+            return id;
+        }
+
+        /**
+         * Calls back every word matching a query word, with the quality of the match
+         * @param query The query word
+         * @param visitor Receives each matching word and its quality
+         */
+        void visitMatches(String query, MatchVisitor visitor) {
+            if (words.isEmpty()) {
+                return;
+            }
+            // Words starting with the query word
+            for (Map.Entry<String, Integer> e : sorted.subMap(query, query + Character.MAX_VALUE).entrySet()) {
+                visitor.visit(e.getValue(), e.getKey().length() == query.length() ? EXACT : PREFIX);
+            }
+            int edits = maxEdits(query.length());
+            if (edits == 0) {
+                return;
+            }
+            // Words within the allowed typos.  A transposition is two Levenshtein edits, so the
+            // tree is searched twice as far and the candidates checked with transpositions.
+            int radius = 2 * edits;
+            int[] stack = new int[16];
+            int depth = 0;
+            stack[depth++] = 0;
+            while (depth > 0) {
+                int node = stack[--depth];
+                String word = words.get(node);
+                int d = levenshtein(query, word);
+                if (d <= radius && !word.startsWith(query) && editDistance(query, word, edits) <= edits) {
+                    visitor.visit(node, TYPO);
+                }
+                for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+                    if (distance[child] >= d - radius && distance[child] <= d + radius) {
+                        if (depth == stack.length) {
+                            stack = Arrays.copyOf(stack, depth * 2);
+                        }
+                        stack[depth++] = child;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the words matching a query word
+     */
+    private interface MatchVisitor {
+        void visit(int word, float quality);
+    }
+
+    //////////////////////////
+    //  C o n s t a n t s   //
+    //////////////////////////
+    /* Quality of a match of a query word */
+    private static final float EXACT = 1f, PREFIX = 0.6f, TYPO = 0.5f;
+
+    //////////////////////
+    //  M e m b e r s   //
+    //////////////////////
+    private final FieldIndex[] fields = new FieldIndex[Field.values().length];
+    /** Number of rows indexed */
+    private int size;
+
+    ////////////////////////////////
+    //  C o n s t r u c t o r s   //
+    ////////////////////////////////
+    /**
+     * Creates an empty index
+     */
+    public TextIndex() {
+        for (int f = 0; f < fields.length; f++) {
+            fields[f] = new FieldIndex();
+        }
+    }
+
+    //////////////////////////////////////
+    // I n s t a n c e  M e t h o d s   //
+    //////////////////////////////////////
+    /**
+     * Adds the next row of the catalog
+     * @param title The title of the row's course
+     * @param instructor The instructor of the row's course
+     * @return The row, i.e. the number of rows added before
+     */
+    public int add(String title, String instructor) {
+        int row = size++;
+        fields[Field.TITLE.ordinal()].add(title, row);
+        fields[Field.INSTRUCTOR.ordinal()].add(instructor, row);
+        return row;
+    }
+
+    /**
+     * Returns the number of rows in the index
+     * @return The number of rows indexed
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of distinct words of a field
+     * @param field The field
+     * @return The number of words
+     */
+    public int getWordCount(Field field) {
+        return fields[field.ordinal()].words.size();
+    }
+
+    /**
+     * Returns the rows whose field matches every word of a text
+     * @param field The field searched
+     * @param text The text, e.g. "hawaiian language"
+     * @return A new BitSet of the rows; every row if the text has no words
+     */
+    public BitSet matching(Field field, String text) {
+        return matching(new Field[] {field}, text);
+    }
+
+    /**
+     * Returns the rows where every word of a text matches a word of the title or instructor
+     * @param text The text
+     * @return A new BitSet of the rows; every row if the text has no words
+     */
+    public BitSet matchingAny(String text) {
+        return matching(Field.values(), text);
+    }
+
+    private BitSet matching(Field[] searched, String text) {
+        BitSet result = new BitSet(size);
+        result.set(0, size);
+        for (String query : tokenize(text)) {
+            final BitSet rows = new BitSet(size);
+            for (Field field : searched) {
+                final FieldIndex index = fields[field.ordinal()];
+                index.visitMatches(query, new MatchVisitor() {
+                    public void visit(int word, float quality) {
+                        int[] postings = index.postings[word];
+                        for (int i = index.counts[word] - 1; i >= 0; i--) {
+                            rows.set(postings[i]);
+                        }
+                    }
+                });
+            }
+            result.and(rows);
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Orders rows by relevance to a text.  Each word of the text adds the score of its best
+     * match in each row: the quality of the match, times the weight of the field, times the
+     * inverse document frequency of the word matched.
+     * @param text The text, e.g. "hawaiian smith"
+     * @param rows The rows to order, usually those of <code>matchingAny(text)</code>
+     * @return The rows, most relevant first; rows of equal relevance stay in row order
+     */
+    public int[] rank(String text, BitSet rows) {
+        final float[] score = new float[size];
+        final float[] best = new float[size];
+        for (String query : tokenize(text)) {
+            Arrays.fill(best, 0f);
+            for (final Field field : Field.values()) {
+                final FieldIndex index = fields[field.ordinal()];
+                index.visitMatches(query, new MatchVisitor() {
+                    public void visit(int word, float quality) {
+                        int count = index.counts[word];
+                        float s = quality * field.weight * (float) Math.log(1 + (double) size / count);
+                        int[] postings = index.postings[word];
+                        for (int i = 0; i < count; i++) {
+                            if (s > best[postings[i]]) {
+                                best[postings[i]] = s;
+                            }
+                        }
+                    }
+                });
+            }
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                score[row] += best[row];
+            }
+        }
+        // Sort by descending score, then row, packed into longs to sort a primitive array
+        long[] keyed = new long[rows.cardinality()];
+        int n = 0;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            // The bits of a non-negative float grow with it
+            keyed[n++] = ((long) (Integer.MAX_VALUE - Float.floatToIntBits(score[row])) << 32) | row;
+        }
+        Arrays.sort(keyed);
+        int[] ordered = new int[n];
+        for (int i = 0; i < n; i++) {
+            ordered[i] = (int) keyed[i];
+        }
+        return ordered;
+    }
+
+    //////////////////////////////////
+    // S t a t i c  M e t h o d s   //
+    //////////////////////////////////
+    /**
+     * Splits a text into lower case words of letters and digits
+     * @param text The text, may be <code>null</code>
+     * @return The words, in order
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<String>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Returns whether every word of a query matches a word of a text, the way the index matches
+     * them: a word of the text starts with the query word or is within <code>maxEdits()</code>
+     * of it
+     * @param text The text searched, e.g. a course title
+     * @param query The query
+     * @return Whether the text matches; <code>true</code> if the query has no words
+     */
+    public static boolean matches(String text, String query) {
+        List<String> words = tokenize(text);
+        for (String q : tokenize(query)) {
+            if (!matchesWord(words, q)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a query word matches any of the given words
+     * @param words The words of a text
+     * @param query The query word
+     * @return Whether one of the words starts with it or is within its allowed typos
+     */
+    static boolean matchesWord(List<String> words, String query) {
+        int edits = maxEdits(query.length());
+        for (String word : words) {
+            if (word.startsWith(query) || (edits > 0 && editDistance(query, word, edits) <= edits)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of typos allowed in a query word: none up to 3 letters, so that short
+     * words and initials aren't matched to everything, 1 up to 6 letters and 2 beyond
+     * @param length The length of the word
+     * @return The maximum edit distance
+     */
+    public static int maxEdits(int length) {
+        return length <= 3 ? 0 : length <= 6 ? 1 : 2;
+    }
+
+    /**
+     * Returns the Levenshtein distance between two words, the metric of the BK-trees
+     * @param a A word
+     * @param b Another word
+     * @return The number of insertions, deletions and substitutions turning one into the other
+     */
+    static int levenshtein(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+            }
+            int[] t = previous;
+            previous = current;
+            current = t;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Returns the edit distance between two words, counting a transposition of two adjacent
+     * letters as one typo, and giving up as soon as it exceeds a bound
+     * @param a A word
+     * @param b Another word
+     * @param max The bound
+     * @return The distance, or <code>max + 1</code> if it is larger than <code>max</code>
+     */
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] before = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, before[j - 2] + 1);
+                }
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] t = before;
+            before = previous;
+            previous = current;
+            current = t;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+}